@@ -47,6 +47,15 @@ public class AmfArray extends AmfValue {
 		associative = new LinkedHashMap<String, AmfValue>();
 	}
 
+	/**
+	 * Constructs an AmfArray backed by the given list and map, used by the
+	 * decoder.
+	 */
+	AmfArray(List<AmfValue> dense, Map<String, AmfValue> associative) {
+		this.dense = dense;
+		this.associative = associative;
+	}
+
 	/**
 	 * Adds the given value to the dense portion of this array.
 	 * 
@@ -92,6 +101,40 @@ public class AmfArray extends AmfValue {
 		return dense.get(index);
 	}
 
+	/**
+	 * Returns the element at the specified position of the dense part of this
+	 * AmfArray as a double. Integers are widened, and no wrapper objects are
+	 * created.
+	 * 
+	 * @param index
+	 *            index of the element to return
+	 * @return the element at the specified position in this list
+	 * @throws IndexOutOfBoundsException
+	 *             if the index is out of range.
+	 * @throws ClassCastException
+	 *             if the element is not a number.
+	 */
+	public double getDouble(int index) {
+		return AmfPrimitive.toDouble(dense.get(index));
+	}
+
+	/**
+	 * Returns the element at the specified position of the dense part of this
+	 * AmfArray as an int. Doubles are truncated, and no wrapper objects are
+	 * created.
+	 * 
+	 * @param index
+	 *            index of the element to return
+	 * @return the element at the specified position in this list
+	 * @throws IndexOutOfBoundsException
+	 *             if the index is out of range.
+	 * @throws ClassCastException
+	 *             if the element is not a number.
+	 */
+	public int getInt(int index) {
+		return AmfPrimitive.toInt(dense.get(index));
+	}
+
 	/**
 	 * Returns the value from the associative part of this AmfArray to which the
 	 * specified key is mapped, or null if it contains no mapping for the key.
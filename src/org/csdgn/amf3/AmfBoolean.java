@@ -23,17 +23,43 @@ package org.csdgn.amf3;
 
 /**
  * Associated with the AMF true and false types. This class simply stores a Java
- * Boolean internally.
+ * boolean internally.
  * 
  * @author Robert Maupin
  */
 public class AmfBoolean extends AmfPrimitive<Boolean> {
+	/**
+	 * A shared AmfBoolean of true, which cannot be modified.
+	 */
+	public static final AmfBoolean TRUE = new Constant(true);
+	/**
+	 * A shared AmfBoolean of false, which cannot be modified.
+	 */
+	public static final AmfBoolean FALSE = new Constant(false);
+
+	private static final class Constant extends AmfBoolean {
+		Constant(boolean value) {
+			super(value);
+		}
+
+		@Override
+		public void setValue(boolean value) {
+			throw new UnsupportedOperationException("This AmfBoolean is shared and cannot be modified.");
+		}
+
+		@Override
+		public void setValue(Boolean value) {
+			throw new UnsupportedOperationException("This AmfBoolean is shared and cannot be modified.");
+		}
+	}
+
+	private boolean value;
 
 	/**
 	 * Constructs this AmfBoolean with the default value of false.
 	 */
 	public AmfBoolean() {
-		super(false);
+		value = false;
 	}
 
 	/**
@@ -43,22 +69,77 @@ public class AmfBoolean extends AmfPrimitive<Boolean> {
 	 *            The value.
 	 */
 	public AmfBoolean(boolean value) {
-		super(value);
+		this.value = value;
+	}
+
+	/**
+	 * Gets the shared AmfBoolean of the given value, see {@link #TRUE} and
+	 * {@link #FALSE}.
+	 * 
+	 * @param value
+	 *            The value.
+	 * @return The shared AmfBoolean, which cannot be modified.
+	 */
+	public static AmfBoolean valueOf(boolean value) {
+		return value ? TRUE : FALSE;
+	}
+
+	/**
+	 * Gets the value of this boolean without boxing it.
+	 * 
+	 * @return The boolean value.
+	 */
+	public boolean booleanValue() {
+		return value;
+	}
+
+	@Override
+	public boolean equals(AmfValue val) {
+		if(val instanceof AmfBoolean) {
+			return value == ((AmfBoolean) val).value;
+		}
+		return false;
 	}
 
 	@Override
 	public AmfType getType() {
-		if(getValue()) {
+		if(value) {
 			// TRUE
 			return AmfType.True;
 		}
 		// FALSE
 		return AmfType.False;
 	}
+
+	@Override
+	public Boolean getValue() {
+		return value;
+	}
+
+	@Override
+	public int hashCode() {
+		return Boolean.hashCode(value);
+	}
+
+	/**
+	 * Sets the value of this boolean.
+	 * 
+	 * @param value
+	 *            The value.
+	 */
+	public void setValue(boolean value) {
+		this.value = value;
+	}
+
+	@Override
+	public void setValue(Boolean value) {
+		checkValue(value);
+		this.value = value;
+	}
 	
 	@Override
 	public String toString() {
-		if(getValue()) {
+		if(value) {
 			return "Boolean[True]";
 		}
 		return "Boolean[False]";
@@ -0,0 +1,81 @@
+/**
+ * Copyright (c) 2017 Robert Maupin
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.csdgn.amf3;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Provides the buffers an {@link AmfEncoder} writes into. An allocator may
+ * hand out pooled buffers, and is given back each buffer the encoder grows
+ * out of or no longer needs.
+ * 
+ * @author Robert Maupin
+ */
+public interface AmfBufferAllocator {
+	/**
+	 * Allocates buffers on the heap. This is the default allocator.
+	 */
+	public static final AmfBufferAllocator HEAP = new AmfBufferAllocator() {
+		@Override
+		public ByteBuffer allocate(int capacity) {
+			return ByteBuffer.allocate(capacity);
+		}
+
+		@Override
+		public void release(ByteBuffer buffer) {
+		}
+	};
+
+	/**
+	 * Allocates direct buffers, which can be written to a channel without
+	 * being copied first.
+	 */
+	public static final AmfBufferAllocator DIRECT = new AmfBufferAllocator() {
+		@Override
+		public ByteBuffer allocate(int capacity) {
+			return ByteBuffer.allocateDirect(capacity);
+		}
+
+		@Override
+		public void release(ByteBuffer buffer) {
+		}
+	};
+
+	/**
+	 * Allocates a buffer.
+	 * 
+	 * @param capacity
+	 *            The minimum capacity of the buffer.
+	 * @return A buffer with at least the given capacity. Its position, limit
+	 *         and byte order are ignored.
+	 */
+	public ByteBuffer allocate(int capacity);
+
+	/**
+	 * Gives back a buffer allocated by this allocator, which the encoder will
+	 * not use again.
+	 * 
+	 * @param buffer
+	 *            The buffer given back.
+	 */
+	public void release(ByteBuffer buffer);
+}
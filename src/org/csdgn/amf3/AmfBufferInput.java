@@ -0,0 +1,1163 @@
+/**
+ * Copyright (c) 2017 Robert Maupin
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.csdgn.amf3;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Contains the primitive read methods shared by the decoders that work
+ * directly on a {@link ByteBuffer}. All reads are made with absolute indexes
+ * against a private big-endian view of the source buffer, so no per byte
+ * virtual or synchronized calls are made.
+ * 
+ * @author Robert Maupin
+ */
+abstract class AmfBufferInput {
+	/**
+	 * Trait flag for externalizable traits, see {@link #traitFlags}.
+	 */
+	protected static final int TRAIT_EXTERNALIZABLE = 1;
+	/**
+	 * Trait flag for dynamic traits, see {@link #traitFlags}.
+	 */
+	protected static final int TRAIT_DYNAMIC = 2;
+
+	// the kinds of frame on the stack of containers being skipped
+	private static final int SKIP_ARRAY = 0;
+	private static final int SKIP_OBJECT_SEALED = 1;
+	private static final int SKIP_OBJECT_DYNAMIC = 2;
+	private static final int SKIP_VALUES = 3;
+
+	protected ByteBuffer buf;
+	protected List<ExternalizableFactory> factories;
+	protected int limit;
+	protected int pos;
+	private byte[] scratch;
+
+	// The stack of containers being skipped, see skipEncodedValue. For each
+	// the number of values left is kept, the trait index of objects, and the
+	// reference index of the container.
+	private int skipDepth;
+	private int[] skipCount;
+	private int[] skipKind;
+	private int[] skipReference;
+	private int[] skipTrait;
+
+	// Where each container that was skipped ends, by reference index, along
+	// with the size of the string, trait and reference tables there, or null
+	// if not kept. See recordSkips.
+	private int[] skipEnds;
+	private int[] skipEndReferences;
+	private int[] skipEndStrings;
+	private int[] skipEndTraits;
+
+	// The object reference table. For each entry the position of its type
+	// marker is kept, along with the size of the string and trait tables at
+	// that point, so that the value can be decoded again from there.
+	protected int referenceCount;
+	protected int[] referenceOffsets;
+	protected int[] referenceStrings;
+	protected int[] referenceTraits;
+
+	// The string table, stored as positions within the buffer. The strings
+	// themselves are only decoded when needed.
+	protected int stringCount;
+	protected int[] stringLengths;
+	protected int[] stringOffsets;
+
+	// The trait table, with the property names stored as string table
+	// indexes. Each trait has its sealed property count and flags packed as
+	// (count << 2) | flags, where the flags are TRAIT_DYNAMIC and
+	// TRAIT_EXTERNALIZABLE. A name index of -1 is the empty string.
+	protected int traitCount;
+	protected int[] traitFlags;
+	protected int[] traitNames;
+	protected int traitPropertyCount;
+	protected int[] traitProperties;
+	protected int[] traitStarts;
+
+	// The decode limits, see setDecodeLimits, along with the nesting depth and
+	// estimated size of the value being read.
+	protected int maxByteArrayLength = Integer.MAX_VALUE;
+	protected int maxDepth = Integer.MAX_VALUE;
+	protected int maxElements = Integer.MAX_VALUE;
+	protected int maxReferences = Integer.MAX_VALUE;
+	protected int maxStringLength = Integer.MAX_VALUE;
+	protected long maxTotalBytes = Long.MAX_VALUE;
+	protected int nesting;
+	protected long totalBytes;
+
+	protected AmfBufferInput() {
+		factories = new ArrayList<ExternalizableFactory>();
+		referenceOffsets = new int[16];
+		referenceStrings = new int[16];
+		referenceTraits = new int[16];
+		stringOffsets = new int[16];
+		stringLengths = new int[16];
+		traitFlags = new int[8];
+		traitNames = new int[8];
+		traitStarts = new int[8];
+		traitProperties = new int[32];
+		skipCount = new int[8];
+		skipKind = new int[8];
+		skipReference = new int[8];
+		skipTrait = new int[8];
+	}
+
+	/**
+	 * Sets the buffer to read from. Reading starts at the buffers position and
+	 * ends at its limit. The position of the given buffer is not modified.
+	 * 
+	 * @param buffer
+	 *            the buffer to read from.
+	 */
+	protected void setInput(ByteBuffer buffer) {
+		buf = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+		pos = buffer.position();
+		limit = buffer.limit();
+	}
+
+	/**
+	 * Sets the limits checked while decoding, or null for no limits. The
+	 * limits are copied, so later changes to them have no effect.
+	 * 
+	 * @param limits
+	 *            the limits to use, may be null.
+	 */
+	public void setDecodeLimits(DecodeLimits limits) {
+		if(limits == null) {
+			limits = new DecodeLimits();
+		}
+		maxByteArrayLength = limits.getMaxByteArrayLength();
+		maxDepth = limits.getMaxDepth();
+		maxElements = limits.getMaxElements();
+		maxReferences = limits.getMaxReferences();
+		maxStringLength = limits.getMaxStringLength();
+		maxTotalBytes = limits.getMaxTotalBytes();
+	}
+
+	/**
+	 * Gets a copy of the limits checked while decoding.
+	 * 
+	 * @return the limits.
+	 */
+	public DecodeLimits getDecodeLimits() {
+		DecodeLimits limits = new DecodeLimits();
+		limits.setMaxByteArrayLength(maxByteArrayLength);
+		limits.setMaxDepth(maxDepth);
+		limits.setMaxElements(maxElements);
+		limits.setMaxReferences(maxReferences);
+		limits.setMaxStringLength(maxStringLength);
+		limits.setMaxTotalBytes(maxTotalBytes);
+		return limits;
+	}
+
+	/**
+	 * Adds the given number of bytes to the estimated size of the value being
+	 * read.
+	 * 
+	 * @throws UnexpectedDataException
+	 *             if the value is too large.
+	 */
+	protected final void addBytes(long bytes) throws UnexpectedDataException {
+		totalBytes += bytes;
+		if(totalBytes > maxTotalBytes) {
+			throw DecodeLimits.exceeded("total bytes", maxTotalBytes);
+		}
+	}
+
+	/**
+	 * Checks the element count of a collection.
+	 * 
+	 * @throws UnexpectedDataException
+	 *             if there are too many elements.
+	 */
+	protected final void checkElements(int count) throws UnexpectedDataException {
+		if(count > maxElements) {
+			throw DecodeLimits.exceeded("elements", maxElements);
+		}
+	}
+
+	/**
+	 * Checks the length of a byte array, or of a string or XML value if it is
+	 * not a byte array.
+	 * 
+	 * @throws UnexpectedDataException
+	 *             if the value is too long.
+	 */
+	protected final void checkLength(int length, boolean byteArray) throws UnexpectedDataException {
+		if(byteArray) {
+			if(length > maxByteArrayLength) {
+				throw DecodeLimits.exceeded("byte array length", maxByteArrayLength);
+			}
+		} else if(length > maxStringLength) {
+			throw DecodeLimits.exceeded("string length", maxStringLength);
+		}
+	}
+
+	/**
+	 * Goes one level deeper into nested values. The caller decrements
+	 * {@link #nesting} when it is done, the tables being cleared resets it.
+	 * 
+	 * @throws UnexpectedDataException
+	 *             if the values are nested too deep.
+	 */
+	protected final void enter() throws UnexpectedDataException {
+		if(++nesting > maxDepth) {
+			throw DecodeLimits.exceeded("depth", maxDepth);
+		}
+	}
+
+	/**
+	 * Releases the reference to the current input buffer.
+	 */
+	protected void clearInput() {
+		buf = null;
+		pos = 0;
+		limit = 0;
+	}
+
+	/**
+	 * Records a value in the object reference table.
+	 * 
+	 * @param offset
+	 *            the position of the type marker of the value.
+	 * @param strings
+	 *            the size of the string table at the type marker.
+	 * @param traits
+	 *            the size of the trait table at the type marker.
+	 * @return the reference index of the value.
+	 * @throws UnexpectedDataException
+	 *             if the reference table is full.
+	 */
+	protected final int addReference(int offset, int strings, int traits) throws UnexpectedDataException {
+		if(referenceCount >= maxReferences) {
+			throw DecodeLimits.exceeded("references", maxReferences);
+		}
+		if(referenceCount == referenceOffsets.length) {
+			int length = referenceCount << 1;
+			referenceOffsets = Arrays.copyOf(referenceOffsets, length);
+			referenceStrings = Arrays.copyOf(referenceStrings, length);
+			referenceTraits = Arrays.copyOf(referenceTraits, length);
+		}
+		referenceOffsets[referenceCount] = offset;
+		referenceStrings[referenceCount] = strings;
+		referenceTraits[referenceCount] = traits;
+		return referenceCount++;
+	}
+
+	/**
+	 * Checks that the given object reference index is in the reference table.
+	 * 
+	 * @param index
+	 *            the reference index.
+	 * @throws UnexpectedDataException
+	 *             if there is no such reference.
+	 */
+	protected final void checkReference(int index) throws UnexpectedDataException {
+		if(index >= referenceCount) {
+			throw new UnexpectedDataException(String.format("Invalid object reference: %d", index));
+		}
+	}
+
+	/**
+	 * Checks that the given object reference index is in the reference table,
+	 * and that the value there has the same type as the marker that refers to
+	 * it. XML and XML documents decode to the same class, so either may refer
+	 * to the other.
+	 * 
+	 * @param index
+	 *            the reference index.
+	 * @param type
+	 *            the type of the marker.
+	 * @throws UnexpectedDataException
+	 *             if there is no such reference, or it is of another type.
+	 */
+	protected final void checkReference(int index, AmfType type) throws UnexpectedDataException {
+		checkReference(index);
+		AmfType referenced = AmfType.get(buf.get(referenceOffsets[index]) & 0xFF);
+		if(referenced != type && !(isXml(referenced) && isXml(type))) {
+			throw new UnexpectedDataException(String.format("Invalid object reference: %d is not a %s", index, type));
+		}
+	}
+
+	private static boolean isXml(AmfType type) {
+		return type == AmfType.Xml || type == AmfType.XmlDoc;
+	}
+
+	/**
+	 * Clears the string, trait and reference tables. The backing arrays are
+	 * kept.
+	 */
+	protected void clearTables() {
+		stringCount = 0;
+		traitCount = 0;
+		traitPropertyCount = 0;
+		referenceCount = 0;
+		nesting = 0;
+		totalBytes = 0;
+		skipDepth = 0;
+		if(skipEnds != null) {
+			Arrays.fill(skipEnds, 0);
+		}
+	}
+
+	/**
+	 * Keeps where each container that is skipped ends, so that skipping it
+	 * again jumps straight to its end. This is only of use when the same
+	 * input is skipped more than once.
+	 */
+	protected final void recordSkips() {
+		skipEnds = new int[16];
+		skipEndReferences = new int[16];
+		skipEndStrings = new int[16];
+		skipEndTraits = new int[16];
+	}
+
+	/**
+	 * Rewinds the string and trait tables to the given sizes. Entries read
+	 * afterwards are written over the entries that were there, which only
+	 * works when the same data is being read again.
+	 * 
+	 * @param strings
+	 *            the string table size.
+	 * @param traits
+	 *            the trait table size.
+	 */
+	protected final void rewindTables(int strings, int traits) {
+		if(traits < traitCount) {
+			traitPropertyCount = traitStarts[traits];
+		}
+		stringCount = strings;
+		traitCount = traits;
+	}
+
+	/**
+	 * Reads the externalizable data for an object with the given trait name,
+	 * using the first ExternalizableFactory that supports it.
+	 * 
+	 * @param traitName
+	 *            the trait name.
+	 * @return the externalizable read.
+	 * @throws IOException
+	 *             if the externalizable encountered an I/O error.
+	 */
+	protected final Externalizable readExternalizable(String traitName) throws IOException {
+		Externalizable ex = null;
+		for(ExternalizableFactory factory : factories) {
+			ex = factory.create(traitName);
+			if(ex != null) {
+				break;
+			}
+		}
+		if(ex == null) {
+			throw new UnsupportedOperationException("Externalizable factory does not support the externalizable data.");
+		}
+		try {
+			ex.readExternal(asDataInput());
+		} catch(UnexpectedDataException e) {
+			throw new UnsupportedOperationException("Externalizable cannot read the externalizable data.");
+		}
+		return ex;
+	}
+
+	/**
+	 * Decodes the string at the given string table index.
+	 * 
+	 * @param index
+	 *            the string table index, or -1 for the empty string.
+	 * @return the string
+	 * @throws UnexpectedDataException
+	 *             if the string cannot be read.
+	 */
+	protected String getTableString(int index) throws UnexpectedDataException {
+		if(index < 0) {
+			return "";
+		}
+		int mark = pos;
+		pos = stringOffsets[index];
+		String str = readUTF8(stringLengths[index]);
+		pos = mark;
+		return str;
+	}
+
+	/**
+	 * Compares the bytes of the input at the given position with the given
+	 * array, without decoding them.
+	 * 
+	 * @param offset
+	 *            the position within the input.
+	 * @param length
+	 *            the number of bytes at that position.
+	 * @param data
+	 *            the bytes to compare with.
+	 * @return true if the bytes are the same, false otherwise.
+	 */
+	protected final boolean bytesEqual(int offset, int length, byte[] data) {
+		if(data.length != length) {
+			return false;
+		}
+		if(buf.hasArray()) {
+			byte[] array = buf.array();
+			offset += buf.arrayOffset();
+			for(int i = 0; i < length; ++i) {
+				if(array[offset + i] != data[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+		for(int i = 0; i < length; ++i) {
+			if(buf.get(offset + i) != data[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Checks if the string at the given string table index is the given
+	 * string, without decoding it. Only strings of ASCII characters are
+	 * compared, any other string does not match.
+	 * 
+	 * @param index
+	 *            the string table index.
+	 * @param str
+	 *            the string to compare with, may be null.
+	 * @return true if the strings are the same, false if they are not or the
+	 *         string is not ASCII.
+	 */
+	protected final boolean tableStringMatches(int index, String str) {
+		int length = stringLengths[index];
+		if(str == null || str.length() != length) {
+			return false;
+		}
+		int offset = stringOffsets[index];
+		for(int i = 0; i < length; ++i) {
+			int b = buf.get(offset + i);
+			// only ASCII is compared, as then bytes and chars match one to one
+			if(b < 0 || b != str.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Compares the string at the given string table index with the given UTF-8
+	 * encoded string, without decoding it.
+	 * 
+	 * @param index
+	 *            the string table index, or -1 for the empty string.
+	 * @param utf8
+	 *            the UTF-8 bytes to compare with.
+	 * @return true if the strings are the same, false otherwise.
+	 */
+	protected final boolean tableStringEquals(int index, byte[] utf8) {
+		if(index < 0) {
+			return utf8.length == 0;
+		}
+		return bytesEqual(stringOffsets[index], stringLengths[index], utf8);
+	}
+
+	/**
+	 * Reads a string header and records the string in the string table, if it
+	 * is stored by value. The string itself is skipped, not decoded.
+	 * 
+	 * @return the string table index of the string, or -1 for the empty
+	 *         string.
+	 * @throws UnexpectedDataException
+	 *             if the data is invalid.
+	 */
+	protected final int readStringIndex() throws UnexpectedDataException {
+		int h = readU29();
+
+		// Stored by reference?
+		if((h & 1) == 0) {
+			int index = h >>> 1;
+			if(index >= stringCount) {
+				throw new UnexpectedDataException(String.format("Invalid string reference: %d", index));
+			}
+			return index;
+		}
+
+		// Empty string (never stored by ref) ?
+		int length = h >>> 1;
+		if(length == 0) {
+			return -1;
+		}
+		require(length);
+		if(length > maxStringLength) {
+			throw DecodeLimits.exceeded("string length", maxStringLength);
+		}
+		if(stringCount >= maxReferences) {
+			throw DecodeLimits.exceeded("strings", maxReferences);
+		}
+
+		if(stringCount == stringOffsets.length) {
+			stringOffsets = Arrays.copyOf(stringOffsets, stringCount << 1);
+			stringLengths = Arrays.copyOf(stringLengths, stringCount << 1);
+		}
+		stringOffsets[stringCount] = pos;
+		stringLengths[stringCount] = length;
+		pos += length;
+		return stringCount++;
+	}
+
+	/**
+	 * Reads the trait of an object, recording it in the trait table if it is
+	 * stored by value.
+	 * 
+	 * @param h
+	 *            the object header, without the reference bit.
+	 * @return the trait table index of the trait.
+	 * @throws UnexpectedDataException
+	 *             if the data is invalid.
+	 */
+	protected final int readTraitIndex(int h) throws UnexpectedDataException {
+		if((h & 1) == 0) {
+			int index = h >>> 1;
+			if(index >= traitCount) {
+				throw new UnexpectedDataException(String.format("Invalid trait reference: %d", index));
+			}
+			return index;
+		}
+
+		int count = h >>> 3;
+		int flags = 0;
+		if((h & 2) != 0) {
+			flags |= TRAIT_EXTERNALIZABLE;
+		}
+		if((h & 4) != 0) {
+			flags |= TRAIT_DYNAMIC;
+		}
+		int name = readStringIndex();
+
+		// each property takes at least one byte
+		require(count);
+		checkElements(count);
+		if(traitCount >= maxReferences) {
+			throw DecodeLimits.exceeded("traits", maxReferences);
+		}
+		if(traitPropertyCount + count > traitProperties.length) {
+			traitProperties = Arrays.copyOf(traitProperties, (traitPropertyCount + count) << 1);
+		}
+		int start = traitPropertyCount;
+		for(int i = 0; i < count; ++i) {
+			traitProperties[start + i] = readStringIndex();
+		}
+		traitPropertyCount += count;
+
+		if(traitCount == traitFlags.length) {
+			traitFlags = Arrays.copyOf(traitFlags, traitCount << 1);
+			traitNames = Arrays.copyOf(traitNames, traitCount << 1);
+			traitStarts = Arrays.copyOf(traitStarts, traitCount << 1);
+		}
+		traitFlags[traitCount] = (count << 2) | flags;
+		traitNames[traitCount] = name;
+		traitStarts[traitCount] = start;
+		return traitCount++;
+	}
+
+	/**
+	 * Ensures that there are at least the given number of bytes remaining.
+	 * 
+	 * @param length
+	 *            the number of bytes required.
+	 * @throws UnexpectedDataException
+	 *             if there are not enough bytes remaining.
+	 */
+	protected final void require(int length) throws UnexpectedDataException {
+		if(length < 0 || limit - pos < length) {
+			throw new UnexpectedDataException("Unexpected end of data.");
+		}
+	}
+
+	/**
+	 * Checks that the given number of elements of the given size remain.
+	 * 
+	 * @param count
+	 *            the number of elements required.
+	 * @param shift
+	 *            the size of an element, as a power of two.
+	 * @throws UnexpectedDataException
+	 *             if there are not enough bytes remaining.
+	 */
+	protected final void require(int count, int shift) throws UnexpectedDataException {
+		if(count < 0 || count > (limit - pos) >>> shift) {
+			throw new UnexpectedDataException("Unexpected end of data.");
+		}
+	}
+
+	protected final boolean readBoolean() throws UnexpectedDataException {
+		return readUnsignedByte() != 0;
+	}
+
+	protected final void readBytes(byte[] dst, int offset, int length) throws UnexpectedDataException {
+		require(length);
+		if(buf.hasArray()) {
+			System.arraycopy(buf.array(), buf.arrayOffset() + pos, dst, offset, length);
+		} else {
+			buf.position(pos);
+			buf.get(dst, offset, length);
+		}
+		pos += length;
+	}
+
+	/**
+	 * Reads the given number of big-endian doubles in bulk.
+	 */
+	protected final double[] readDoubles(int count) throws UnexpectedDataException {
+		require(count, 3);
+		double[] dst = new double[count];
+		buf.position(pos);
+		buf.asDoubleBuffer().get(dst);
+		pos += count << 3;
+		return dst;
+	}
+
+	/**
+	 * Reads the given number of big-endian doubles into the given array,
+	 * without creating a view of the input.
+	 */
+	protected final void readDoubles(double[] dst, int count) throws UnexpectedDataException {
+		require(count, 3);
+		for(int i = 0; i < count; ++i) {
+			dst[i] = buf.getDouble(pos);
+			pos += 8;
+		}
+	}
+
+	protected final double readDouble() throws UnexpectedDataException {
+		require(8);
+		double value = buf.getDouble(pos);
+		pos += 8;
+		return value;
+	}
+
+	/**
+	 * Reads the given number of big-endian ints in bulk.
+	 */
+	protected final int[] readInts(int count) throws UnexpectedDataException {
+		require(count, 2);
+		int[] dst = new int[count];
+		buf.position(pos);
+		buf.asIntBuffer().get(dst);
+		pos += count << 2;
+		return dst;
+	}
+
+	/**
+	 * Reads the given number of big-endian ints into the given array, without
+	 * creating a view of the input.
+	 */
+	protected final void readInts(int[] dst, int count) throws UnexpectedDataException {
+		require(count, 2);
+		for(int i = 0; i < count; ++i) {
+			dst[i] = buf.getInt(pos);
+			pos += 4;
+		}
+	}
+
+	protected final int readInt() throws UnexpectedDataException {
+		require(4);
+		int value = buf.getInt(pos);
+		pos += 4;
+		return value;
+	}
+
+	protected final int readS29() throws UnexpectedDataException {
+		// sign extend from 29 bits
+		return (readU29() << 3) >> 3;
+	}
+
+	protected final String readString(int length) throws UnexpectedDataException {
+		require(length);
+		String str;
+		if(buf.hasArray()) {
+			str = new String(buf.array(), buf.arrayOffset() + pos, length, StandardCharsets.US_ASCII);
+			pos += length;
+		} else {
+			if(scratch == null || scratch.length < length) {
+				scratch = new byte[Math.max(length, 64)];
+			}
+			readBytes(scratch, 0, length);
+			str = new String(scratch, 0, length, StandardCharsets.US_ASCII);
+		}
+		return str;
+	}
+
+	/**
+	 * Reads a U29 value. When at least four bytes remain, all four are read
+	 * at once and the length of the value is determined from the
+	 * continuation bits, rather than testing each byte in turn.
+	 * 
+	 * @return the value read
+	 * @throws UnexpectedDataException
+	 *             if the data ends before the value does.
+	 */
+	protected final int readU29() throws UnexpectedDataException {
+		if(limit - pos >= 4) {
+			int w = buf.getInt(pos);
+			// bits set where the first three bytes have no continuation flag
+			int stop = ~w & 0x80808000;
+			if(stop == 0) {
+				// 7-7-7-8
+				pos += 4;
+				return ((w >>> 2) & 0x1FC00000) | ((w >>> 1) & 0x003F8000) | (w & 0x7FFF);
+			}
+			// 7, 7-7 or 7-7-7
+			int count = (Integer.numberOfLeadingZeros(stop) >>> 3) + 1;
+			int value = ((w >>> 10) & 0x1FC000) | ((w >>> 9) & 0x3F80) | ((w >>> 8) & 0x7F);
+			pos += count;
+			return value >>> (7 * (3 - count));
+		}
+
+		// close to the end of the data, fall back to a byte at a time
+		int result = 0;
+		for(int i = 0; i < 3; ++i) {
+			int b = readUnsignedByte();
+			result = (result << 7) | (b & 0x7F);
+			if((b & 0x80) == 0) {
+				return result;
+			}
+		}
+		return (result << 8) | readUnsignedByte();
+	}
+
+	protected final int readUnsignedByte() throws UnexpectedDataException {
+		if(pos >= limit) {
+			throw new UnexpectedDataException("Unexpected end of data.");
+		}
+		return buf.get(pos++) & 0xFF;
+	}
+
+	protected final int readUnsignedShort() throws UnexpectedDataException {
+		require(2);
+		int value = buf.getShort(pos) & 0xFFFF;
+		pos += 2;
+		return value;
+	}
+
+	protected final String readUTF8(int length) throws UnexpectedDataException {
+		require(length);
+		if(!buf.hasArray() && (scratch == null || scratch.length < length)) {
+			scratch = new byte[Math.max(length, 64)];
+		}
+		buf.position(pos);
+		String str = AmfUTF8.decode(buf, length, scratch);
+		pos += length;
+		return str;
+	}
+
+	protected final void skipBytes(int length) throws UnexpectedDataException {
+		require(length);
+		pos += length;
+	}
+
+	/**
+	 * Walks past the next value without creating it. The string, trait and
+	 * reference tables are updated exactly as if the value had been read.
+	 * Externalizable data can only be skipped by reading it.
+	 * 
+	 * @throws IOException
+	 *             if an externalizable encountered an I/O error.
+	 * @throws UnexpectedDataException
+	 *             if the data is invalid.
+	 */
+	protected final void skipEncodedValue() throws IOException, UnexpectedDataException {
+		// containers are skipped with a stack of frames rather than by
+		// recursion, so values can be nested as deep as memory allows
+		int base = skipDepth;
+		skipStart();
+		while(skipDepth > base) {
+			int d = skipDepth - 1;
+			switch(skipKind[d]) {
+			case SKIP_ARRAY:
+				if(readStringIndex() != -1) {
+					skipStart();
+				} else {
+					// the dense part follows
+					skipKind[d] = SKIP_VALUES;
+				}
+				break;
+
+			case SKIP_OBJECT_SEALED:
+				if(skipCount[d] > 0) {
+					--skipCount[d];
+					skipStart();
+				} else if((traitFlags[skipTrait[d]] & TRAIT_DYNAMIC) != 0) {
+					skipKind[d] = SKIP_OBJECT_DYNAMIC;
+				} else {
+					skipObjectEnd();
+				}
+				break;
+
+			case SKIP_OBJECT_DYNAMIC:
+				if(readStringIndex() != -1) {
+					skipStart();
+				} else {
+					skipObjectEnd();
+				}
+				break;
+
+			default:
+				if(skipCount[d] > 0) {
+					--skipCount[d];
+					skipStart();
+				} else {
+					--skipDepth;
+					--nesting;
+					skipEnd(skipReference[skipDepth]);
+				}
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Records where the container with the given reference index ends, if
+	 * skips are being recorded.
+	 */
+	private void skipEnd(int reference) {
+		if(skipEnds == null) {
+			return;
+		}
+		if(reference >= skipEnds.length) {
+			int length = Math.max(reference + 1, skipEnds.length << 1);
+			skipEnds = Arrays.copyOf(skipEnds, length);
+			skipEndReferences = Arrays.copyOf(skipEndReferences, length);
+			skipEndStrings = Arrays.copyOf(skipEndStrings, length);
+			skipEndTraits = Arrays.copyOf(skipEndTraits, length);
+		}
+		skipEnds[reference] = pos;
+		skipEndReferences[reference] = referenceCount;
+		skipEndStrings[reference] = stringCount;
+		skipEndTraits[reference] = traitCount;
+	}
+
+	/**
+	 * Jumps to the end of the container with the given reference index if it
+	 * was skipped before, restoring the tables there. The entries it added to
+	 * the tables are still in place, as entries are only written over with
+	 * the same data.
+	 * 
+	 * @return true if the container was skipped, false otherwise.
+	 */
+	private boolean skipKnown(int reference) {
+		if(skipEnds == null || reference >= skipEnds.length || skipEnds[reference] == 0) {
+			return false;
+		}
+		pos = skipEnds[reference];
+		referenceCount = skipEndReferences[reference];
+		stringCount = skipEndStrings[reference];
+		traitCount = skipEndTraits[reference];
+		if(traitCount == 0) {
+			traitPropertyCount = 0;
+		} else {
+			traitPropertyCount = traitStarts[traitCount - 1] + (traitFlags[traitCount - 1] >>> 2);
+		}
+		return true;
+	}
+
+	/**
+	 * Reads the externalizable data of the object on top of the skip stack,
+	 * if any, and pops it.
+	 */
+	private void skipObjectEnd() throws IOException, UnexpectedDataException {
+		int trait = skipTrait[--skipDepth];
+		--nesting;
+		if((traitFlags[trait] & TRAIT_EXTERNALIZABLE) != 0) {
+			readExternalizable(getTableString(traitNames[trait]));
+		}
+		skipEnd(skipReference[skipDepth]);
+	}
+
+	private void skipPush(int kind, int count, int trait, int reference) throws UnexpectedDataException {
+		enter();
+		if(skipDepth == skipKind.length) {
+			int length = skipDepth << 1;
+			skipCount = Arrays.copyOf(skipCount, length);
+			skipKind = Arrays.copyOf(skipKind, length);
+			skipReference = Arrays.copyOf(skipReference, length);
+			skipTrait = Arrays.copyOf(skipTrait, length);
+		}
+		skipKind[skipDepth] = kind;
+		skipCount[skipDepth] = count;
+		skipReference[skipDepth] = reference;
+		skipTrait[skipDepth] = trait;
+		++skipDepth;
+	}
+
+	/**
+	 * Skips a value, or only the start of it if it is a container, in which
+	 * case a frame is pushed for its members.
+	 */
+	private void skipStart() throws UnexpectedDataException {
+		int start = pos;
+		int strings = stringCount;
+		int traits = traitCount;
+		int typeId = readUnsignedByte();
+		AmfType type = AmfType.get(typeId);
+		if(type == null) {
+			throw new UnexpectedDataException(String.format("Unknown Value Type: 0x%x", typeId));
+		}
+		if(type == AmfType.Integer) {
+			readU29();
+			return;
+		} else if(type == AmfType.Double) {
+			skipBytes(8);
+			return;
+		} else if(type == AmfType.String) {
+			readStringIndex();
+			return;
+		} else if(type.id < AmfType.String.id) {
+			// undefined, null, false and true have no data
+			return;
+		}
+
+		// everything else can be stored by reference
+		int h = readU29();
+		if((h & 1) == 0) {
+			checkReference(h >>> 1, type);
+			return;
+		}
+		h >>>= 1;
+
+		if(type == AmfType.Object) {
+			int trait = readTraitIndex(h);
+			int reference = addReference(start, strings, traits);
+			if(!skipKnown(reference)) {
+				skipPush(SKIP_OBJECT_SEALED, traitFlags[trait] >>> 2, trait, reference);
+			}
+			return;
+		}
+
+		int reference = addReference(start, strings, traits);
+		if(skipKnown(reference)) {
+			return;
+		}
+		switch(type) {
+		case XmlDoc:
+		case Xml:
+		case ByteArray:
+			checkLength(h, type == AmfType.ByteArray);
+			skipBytes(h);
+			break;
+
+		case Date:
+			skipBytes(8);
+			break;
+
+		case Array:
+			checkElements(h);
+			skipPush(SKIP_ARRAY, h, -1, reference);
+			break;
+
+		case Dictionary:
+			checkElements(h);
+			skipBytes(1);
+			skipPush(SKIP_VALUES, h << 1, -1, reference);
+			break;
+
+		case VectorInt:
+		case VectorUInt:
+			checkElements(h);
+			skipBytes(1);
+			skipBytes(h << 2);
+			break;
+
+		case VectorDouble:
+			checkElements(h);
+			skipBytes(1);
+			skipBytes(h << 3);
+			break;
+
+		case VectorGeneric:
+			checkElements(h);
+			skipBytes(1);
+			readStringIndex();
+			skipPush(SKIP_VALUES, h, -1, reference);
+			break;
+
+		default:
+			throw new UnexpectedDataException(String.format("Unknown Value Type: 0x%x", typeId));
+		}
+	}
+
+	/**
+	 * Gets a read only view of the given range of the input, from index zero.
+	 */
+	protected final ByteBuffer view(int offset, int length) {
+		ByteBuffer view = buf.asReadOnlyBuffer();
+		view.limit(offset + length);
+		view.position(offset);
+		return view.slice();
+	}
+
+	/**
+	 * Returns a DataInput that reads from the current position of this input,
+	 * used for reading externalizable data.
+	 * 
+	 * @return a data input reading from this input.
+	 */
+	protected DataInput asDataInput() {
+		return new BufferDataInput();
+	}
+
+	/**
+	 * Adapts the buffer input to a DataInput for {@link Externalizable}s.
+	 * 
+	 * @author Robert Maupin
+	 */
+	private class BufferDataInput implements DataInput {
+		private void ensure(int length) throws EOFException {
+			if(limit - pos < length) {
+				throw new EOFException();
+			}
+		}
+
+		@Override
+		public boolean readBoolean() throws IOException {
+			return readByte() != 0;
+		}
+
+		@Override
+		public byte readByte() throws IOException {
+			ensure(1);
+			return buf.get(pos++);
+		}
+
+		@Override
+		public char readChar() throws IOException {
+			return (char) readShort();
+		}
+
+		@Override
+		public double readDouble() throws IOException {
+			ensure(8);
+			double value = buf.getDouble(pos);
+			pos += 8;
+			return value;
+		}
+
+		@Override
+		public float readFloat() throws IOException {
+			ensure(4);
+			float value = buf.getFloat(pos);
+			pos += 4;
+			return value;
+		}
+
+		@Override
+		public void readFully(byte[] b) throws IOException {
+			readFully(b, 0, b.length);
+		}
+
+		@Override
+		public void readFully(byte[] b, int off, int len) throws IOException {
+			ensure(len);
+			try {
+				readBytes(b, off, len);
+			} catch(UnexpectedDataException e) {
+				throw new EOFException();
+			}
+		}
+
+		@Override
+		public int readInt() throws IOException {
+			ensure(4);
+			int value = buf.getInt(pos);
+			pos += 4;
+			return value;
+		}
+
+		@Override
+		public String readLine() throws IOException {
+			if(pos >= limit) {
+				return null;
+			}
+			StringBuilder line = new StringBuilder();
+			while(pos < limit) {
+				int c = buf.get(pos++) & 0xFF;
+				if(c == '\n') {
+					break;
+				}
+				if(c == '\r') {
+					if(pos < limit && buf.get(pos) == '\n') {
+						++pos;
+					}
+					break;
+				}
+				line.append((char) c);
+			}
+			return line.toString();
+		}
+
+		@Override
+		public long readLong() throws IOException {
+			ensure(8);
+			long value = buf.getLong(pos);
+			pos += 8;
+			return value;
+		}
+
+		@Override
+		public short readShort() throws IOException {
+			ensure(2);
+			short value = buf.getShort(pos);
+			pos += 2;
+			return value;
+		}
+
+		@Override
+		public int readUnsignedByte() throws IOException {
+			return readByte() & 0xFF;
+		}
+
+		@Override
+		public int readUnsignedShort() throws IOException {
+			return readShort() & 0xFFFF;
+		}
+
+		@Override
+		public String readUTF() throws IOException {
+			return DataInputStream.readUTF(this);
+		}
+
+		@Override
+		public int skipBytes(int n) throws IOException {
+			int count = Math.max(0, Math.min(n, limit - pos));
+			pos += count;
+			return count;
+		}
+	}
+}
@@ -21,19 +21,50 @@
  */
 package org.csdgn.amf3;
 
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
- * This class handles byte buffer objects associated in the AMF. Internally
- * makes use of an {@link java.util.ArrayDeque}. This class functions as a basic
- * byte stack.
+ * <p>
+ * This class handles byte buffer objects associated in the AMF. This class
+ * functions as a basic byte stack.
+ * </p>
+ * 
+ * <p>
+ * A byte array may be a view of the bytes of a buffer, such as the data it
+ * was decoded from, rather than a copy of them. The bytes are only copied the
+ * first time bytes are pushed onto it, so byte arrays that are only read or
+ * written again are never copied. See {@link #AmfByteArray(ByteBuffer)} and
+ * {@link AmfDecoder#setByteArrayViews(boolean)}.
+ * </p>
+ * 
+ * <p>
+ * Byte arrays that grow past {@link #CHUNK_SIZE} bytes keep their bytes in
+ * chunks of that size, so bytes pushed onto a large byte array are never
+ * copied again as it grows. {@link #flatten()} moves them into a single
+ * array, which {@link #asByteBuffer()} does when needed.
+ * </p>
  * 
  * @author Robert Maupin
  *
  */
 public class AmfByteArray extends AmfValue {
+	/**
+	 * The size of the chunks the bytes of a large byte array are kept in.
+	 */
+	static final int CHUNK_SIZE = 1 << 16;
+	private static final int CHUNK_SHIFT = 16;
+
+	// when set the bytes are kept in the first chunkCount chunks, which are
+	// full but for the last, rather than in data
+	private byte[][] chunks;
+	private int chunkCount;
 	private byte[] data;
 	private int size;
+	// when set the bytes are those of this read only buffer, from index zero,
+	// until they are copied, see reserve
+	private ByteBuffer view;
 
 	/**
 	 * Constructs a new byte array.
@@ -44,30 +75,187 @@ public class AmfByteArray extends AmfValue {
 	}
 
 	/**
-	 * Returns the current capacity of this AmfByteArray.
+	 * Constructs a byte array of the remaining bytes of the given buffer,
+	 * without copying them. The bytes are copied the first time bytes are
+	 * pushed onto the byte array, so until then the buffer must not be
+	 * modified. The position of the buffer is not changed.
+	 * 
+	 * @param buffer
+	 *            the buffer holding the bytes.
+	 */
+	public AmfByteArray(ByteBuffer buffer) {
+		if(buffer == null) {
+			throw new IllegalArgumentException("The buffer provided cannot be null.");
+		}
+		setView(buffer.slice().asReadOnlyBuffer());
+	}
+
+	/**
+	 * Gets a read only view of the bytes of this byte array, without copying
+	 * them unless they are kept in chunks, see {@link #flatten()}. The view is
+	 * only valid until bytes are next pushed onto this byte array.
+	 * 
+	 * @return a buffer of the bytes, from position zero to the size.
+	 */
+	public ByteBuffer asByteBuffer() {
+		flatten();
+		if(view != null) {
+			ByteBuffer bytes = view.duplicate();
+			bytes.limit(size);
+			return bytes;
+		}
+		return ByteBuffer.wrap(data, 0, size).slice().asReadOnlyBuffer();
+	}
+
+	/**
+	 * Gets a stream that reads the bytes of this byte array, without copying
+	 * them. The stream is only valid until bytes are next pushed onto this
+	 * byte array.
+	 * 
+	 * @return a stream of the bytes.
+	 */
+	public InputStream asInputStream() {
+		return new BufferInputStream(getBuffers());
+	}
+
+	/**
+	 * Returns the current capacity of this AmfByteArray. A byte array that is
+	 * a view of a buffer has no room past its size.
 	 * 
 	 * @return The capacity.
 	 */
 	public int capacity() {
+		if(view != null) {
+			return size;
+		} else if(chunks != null) {
+			return chunkCount * CHUNK_SIZE;
+		}
 		return data.length;
 	}
 
+	/**
+	 * Sets the size of this byte array to the given length, without clearing
+	 * the data, and returns the backing array for the caller to fill. Used by
+	 * the decoders.
+	 */
+	byte[] prepare(int length) {
+		view = null;
+		chunks = null;
+		if(data == null || length >= data.length) {
+			data = new byte[length + 1];
+		}
+		size = length;
+		return data;
+	}
+
+	/**
+	 * Makes this byte array a view of the given read only buffer, from index
+	 * zero to its limit. Used by the decoders.
+	 */
+	void setView(ByteBuffer view) {
+		this.view = view;
+		chunks = null;
+		size = view.limit();
+	}
+
+	/**
+	 * Gets the array the bytes of this byte array are kept in, or null if
+	 * they are a view of a buffer or kept in chunks.
+	 */
+	byte[] getArray() {
+		if(view != null || chunks != null) {
+			return null;
+		}
+		return data;
+	}
+
+	/**
+	 * Gets buffers over the bytes of this byte array, one for each chunk or
+	 * one for all of them, without copying them.
+	 */
+	ByteBuffer[] getBuffers() {
+		if(view != null) {
+			ByteBuffer bytes = view.duplicate();
+			bytes.limit(size);
+			return new ByteBuffer[] { bytes };
+		} else if(chunks == null) {
+			return new ByteBuffer[] { ByteBuffer.wrap(data, 0, size) };
+		}
+		int count = (size + CHUNK_SIZE - 1) >>> CHUNK_SHIFT;
+		ByteBuffer[] buffers = new ByteBuffer[count];
+		for(int i = 0; i < count; ++i) {
+			buffers[i] = ByteBuffer.wrap(chunks[i], 0, Math.min(CHUNK_SIZE, size - (i << CHUNK_SHIFT)));
+		}
+		return buffers;
+	}
+
 	/**
 	 * Resets the size of this byte array and clears data.
 	 */
 	public void clear() {
 		size = 0;
+		if(view != null || chunks != null) {
+			view = null;
+			chunks = null;
+			if(data == null) {
+				data = new byte[8];
+			}
+		}
 	}
 
 	@Override
 	public boolean equals(AmfValue value) {
 		if(value instanceof AmfByteArray) {
 			AmfByteArray ba = (AmfByteArray) value;
-			return Arrays.equals(ba.toArray(), toArray());
+			if(ba.size != size) {
+				return false;
+			}
+			if(size == 0) {
+				return true;
+			}
+			// compare the buffers of both a run at a time, as the chunks of
+			// one need not line up with those of the other
+			ByteBuffer[] a = getBuffers();
+			ByteBuffer[] b = ba.getBuffers();
+			int i = 0;
+			int j = 0;
+			while(i < a.length && j < b.length) {
+				int length = Math.min(a[i].remaining(), b[j].remaining());
+				ByteBuffer x = a[i].duplicate();
+				ByteBuffer y = b[j].duplicate();
+				x.limit(x.position() + length);
+				y.limit(y.position() + length);
+				if(!x.equals(y)) {
+					return false;
+				}
+				a[i].position(a[i].position() + length);
+				b[j].position(b[j].position() + length);
+				if(!a[i].hasRemaining()) {
+					++i;
+				}
+				if(!b[j].hasRemaining()) {
+					++j;
+				}
+			}
+			return true;
 		}
 		return false;
 	}
 
+	/**
+	 * Moves the bytes of this byte array into a single array if they are kept
+	 * in chunks, so they can be read as a single buffer. The bytes are kept
+	 * in chunks again once more bytes are pushed onto it.
+	 */
+	public void flatten() {
+		if(chunks != null) {
+			byte[] flat = new byte[size];
+			copyTo(0, flat, 0, size);
+			data = flat;
+			chunks = null;
+		}
+	}
+
 	@Override
 	public AmfType getType() {
 		return AmfType.ByteArray;
@@ -94,7 +282,7 @@ public class AmfByteArray extends AmfValue {
 		if(size == 0) {
 			throw new IndexOutOfBoundsException("Cannot pop values from an empty array.");
 		}
-		return data[--size];
+		return get(--size);
 	}
 
 	/**
@@ -120,7 +308,8 @@ public class AmfByteArray extends AmfValue {
 		if(size < count) {
 			throw new IndexOutOfBoundsException("Cannot pop more values from an array then are available.");
 		}
-		byte[] ret = Arrays.copyOfRange(data, size - count, size);
+		byte[] ret = new byte[count];
+		copyTo(size - count, ret, 0, count);
 		size -= count;
 		return ret;
 	}
@@ -152,7 +341,7 @@ public class AmfByteArray extends AmfValue {
 		if(size < length) {
 			throw new IndexOutOfBoundsException("Cannot pop more values from an array then are available.");
 		}
-		System.arraycopy(data, size - length, b, offset, length);
+		copyTo(size - length, b, offset, length);
 		size -= length;
 	}
 
@@ -163,12 +352,13 @@ public class AmfByteArray extends AmfValue {
 	 *            The byte to append.
 	 */
 	public void push(byte b) {
-		data[size++] = b;
-
-		if(size == data.length) {
-			// resize and increase capacity by double
-			data = Arrays.copyOf(data, data.length << 1);
+		reserve(1);
+		if(chunks != null) {
+			chunks[size >>> CHUNK_SHIFT][size & (CHUNK_SIZE - 1)] = b;
+		} else {
+			data[size] = b;
 		}
+		++size;
 	}
 
 	/**
@@ -178,12 +368,7 @@ public class AmfByteArray extends AmfValue {
 	 *            The bytes to append.
 	 */
 	public void push(byte[] b) {
-		if(size + b.length >= data.length) {
-			int nCap = (size + b.length) << 1;
-			data = Arrays.copyOf(data, nCap);
-		}
-		System.arraycopy(b, 0, data, size, b.length);
-		size += b.length;
+		append(b, 0, b.length);
 	}
 
 	/**
@@ -209,12 +394,7 @@ public class AmfByteArray extends AmfValue {
 		if(offset + length > b.length) {
 			throw new IndexOutOfBoundsException("Offset and length exceeds the size of the source array.");
 		}
-		if(size + length >= data.length) {
-			int nCap = (size + length) << 1;
-			data = Arrays.copyOf(data, nCap);
-		}
-		System.arraycopy(b, offset, data, size, length);
-		size += b.length;
+		append(b, offset, length);
 	}
 
 	/**
@@ -232,16 +412,120 @@ public class AmfByteArray extends AmfValue {
 	 * @return The byte array.
 	 */
 	public byte[] toArray() {
-		return Arrays.copyOf(data, size);
+		byte[] ret = new byte[size];
+		copyTo(0, ret, 0, size);
+		return ret;
 	}
 	
 	/**
-	 * Gets the internal data array of this byte array.
+	 * Gets the internal data array of this byte array. A byte array that is a
+	 * view of a buffer copies the bytes into an array of its own first.
 	 * @return the backing data byte array
 	 */
 	protected byte[] getBackingArray() {
+		if(view != null) {
+			byte[] copy = new byte[Math.max(8, size)];
+			copyTo(0, copy, 0, size);
+			data = copy;
+			view = null;
+		}
+		flatten();
 		return data;
 	}
+
+	/**
+	 * Appends the given bytes, a chunk at a time if the bytes are kept in
+	 * chunks.
+	 */
+	private void append(byte[] b, int offset, int length) {
+		reserve(length);
+		if(chunks == null) {
+			System.arraycopy(b, offset, data, size, length);
+			size += length;
+			return;
+		}
+		while(length > 0) {
+			int index = size & (CHUNK_SIZE - 1);
+			int count = Math.min(length, CHUNK_SIZE - index);
+			System.arraycopy(b, offset, chunks[size >>> CHUNK_SHIFT], index, count);
+			offset += count;
+			length -= count;
+			size += count;
+		}
+	}
+
+	/**
+	 * Copies the given range of the bytes of this byte array into the given
+	 * array.
+	 */
+	private void copyTo(int from, byte[] dst, int offset, int length) {
+		if(view != null) {
+			ByteBuffer src = view.duplicate();
+			src.position(from);
+			src.get(dst, offset, length);
+		} else if(chunks != null) {
+			while(length > 0) {
+				int index = from & (CHUNK_SIZE - 1);
+				int count = Math.min(length, CHUNK_SIZE - index);
+				System.arraycopy(chunks[from >>> CHUNK_SHIFT], index, dst, offset, count);
+				from += count;
+				offset += count;
+				length -= count;
+			}
+		} else {
+			System.arraycopy(data, from, dst, offset, length);
+		}
+	}
+
+	private byte get(int index) {
+		if(view != null) {
+			return view.get(index);
+		} else if(chunks != null) {
+			return chunks[index >>> CHUNK_SHIFT][index & (CHUNK_SIZE - 1)];
+		}
+		return data[index];
+	}
+
+	/**
+	 * Makes room for the given number of bytes more. The bytes of a view are
+	 * copied, and a byte array that would grow past a chunk is moved into
+	 * chunks, after which only new chunks are added.
+	 */
+	private void reserve(int length) {
+		int capacity = size + length;
+		if(capacity < 0) {
+			throw new OutOfMemoryError("The byte array is too large");
+		}
+		if(chunks == null) {
+			if(view == null && capacity <= data.length) {
+				return;
+			}
+			if(capacity <= CHUNK_SIZE) {
+				// a view or a small array, copied into an array of its own
+				byte[] larger = new byte[Math.min(CHUNK_SIZE, Math.max(8, capacity << 1))];
+				copyTo(0, larger, 0, size);
+				data = larger;
+				view = null;
+				return;
+			}
+			byte[][] moved = new byte[Math.max(4, ((capacity - 1) >>> CHUNK_SHIFT) + 1)][];
+			int count = (size + CHUNK_SIZE - 1) >>> CHUNK_SHIFT;
+			for(int i = 0; i < count; ++i) {
+				moved[i] = new byte[CHUNK_SIZE];
+				copyTo(i << CHUNK_SHIFT, moved[i], 0, Math.min(CHUNK_SIZE, size - (i << CHUNK_SHIFT)));
+			}
+			chunks = moved;
+			chunkCount = count;
+			data = null;
+			view = null;
+		}
+		while((long) chunkCount << CHUNK_SHIFT < capacity) {
+			if(chunkCount == chunks.length) {
+				chunks = Arrays.copyOf(chunks, chunkCount << 1);
+			}
+			chunks[chunkCount++] = new byte[CHUNK_SIZE];
+		}
+	}
 	
 	@Override
 	public String toString() {
@@ -251,10 +535,78 @@ public class AmfByteArray extends AmfValue {
 			if(i != 0) {
 				buf.append(",");
 			}
-			buf.append(String.format("%02x", data[i]));
+			buf.append(String.format("%02x", get(i)));
 		}
 		buf.append("}");
 		return buf.toString();
 	}
 
+	/**
+	 * Reads the remaining bytes of the given buffers in turn, see
+	 * {@link #asInputStream()}. Also used by AmfPushDecoder.
+	 */
+	static class BufferInputStream extends InputStream {
+		private int index;
+		private final ByteBuffer[] srcs;
+
+		BufferInputStream(ByteBuffer[] srcs) {
+			this.srcs = srcs;
+		}
+
+		@Override
+		public int available() {
+			long remaining = 0;
+			for(int i = index; i < srcs.length; ++i) {
+				remaining += srcs[i].remaining();
+			}
+			return (int) Math.min(remaining, Integer.MAX_VALUE);
+		}
+
+		/**
+		 * Gets the buffer with bytes left to read, or null at the end.
+		 */
+		private ByteBuffer next() {
+			while(index < srcs.length) {
+				if(srcs[index].hasRemaining()) {
+					return srcs[index];
+				}
+				++index;
+			}
+			return null;
+		}
+
+		@Override
+		public int read() {
+			ByteBuffer src = next();
+			if(src == null) {
+				return -1;
+			}
+			return src.get() & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if(len == 0) {
+				return 0;
+			}
+			ByteBuffer src = next();
+			if(src == null) {
+				return -1;
+			}
+			len = Math.min(len, src.remaining());
+			src.get(b, off, len);
+			return len;
+		}
+
+		@Override
+		public long skip(long n) {
+			ByteBuffer src = next();
+			if(src == null || n <= 0) {
+				return 0;
+			}
+			int length = (int) Math.min(n, src.remaining());
+			src.position(src.position() + length);
+			return length;
+		}
+	}
 }
\ No newline at end of file
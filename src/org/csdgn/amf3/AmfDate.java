@@ -59,7 +59,7 @@ public class AmfDate extends AmfDouble {
 	 * @return An Instant of this AmfDate.
 	 */
 	public Instant getInstant() {
-		return Instant.ofEpochMilli((long) (double) getValue());
+		return Instant.ofEpochMilli((long) doubleValue());
 	}
 
 	/**
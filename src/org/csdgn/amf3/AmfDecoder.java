@@ -0,0 +1,1680 @@
+/**
+ * Copyright (c) 2017 Robert Maupin
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.csdgn.amf3;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Decodes AMF3 values directly from a {@link ByteBuffer} or byte array. This
+ * produces the same AmfValues as {@link AmfIO#read(java.io.InputStream, ExternalizableFactory...)}
+ * but does not need to wrap the data in a stream first.
+ * 
+ * @author Robert Maupin
+ */
+public class AmfDecoder extends AmfBufferInput {
+	private static final ThreadLocal<AmfDecoder> local = new ThreadLocal<AmfDecoder>();
+	// buffers larger than this are not kept by the thread local decoder
+	private static final int MAX_KEPT_CAPACITY = 1 << 20;
+
+	// what decodePath found at the position after seeking a member
+	private static final int FOUND_NONE = 0;
+	private static final int FOUND_VALUE = 1;
+	private static final int FOUND_INT = 2;
+	private static final int FOUND_DOUBLE = 3;
+
+	// the kinds of frame on the stack of containers being read
+	private static final int FRAME_ARRAY_ASSOCIATIVE = 0;
+	private static final int FRAME_ARRAY_DENSE = 1;
+	private static final int FRAME_OBJECT_SEALED = 2;
+	private static final int FRAME_OBJECT_DYNAMIC = 3;
+	private static final int FRAME_DICTIONARY = 4;
+	private static final int FRAME_VECTOR_GENERIC = 5;
+
+	// values decoded for each entry of the reference tables, entries for
+	// values that were skipped are null until they are needed
+	private boolean acquired;
+	// for reading from streams
+	private AmfPushDecoder pushDecoder;
+	private byte[] streamBuffer;
+	private ByteBuffer streamView;
+	// when set objects and arrays are decoded lazily, see decodeLazy
+	private boolean lazy;
+	// when set byte arrays are views of the input, see setByteArrayViews
+	private boolean views;
+
+	// the stack of containers being read, see readValue, the key is the
+	// pending member name or dictionary key, or the slots of an object
+	private int depth;
+	private int[] frameCount;
+	private int[] frameIndex;
+	private Object[] frameKey;
+	private int[] frameKind;
+	private SimpleTrait[] frameTrait;
+	private AmfValue[] frameValue;
+	// the number of dictionary keys being read, and the settings from before
+	// the first, as keys are never shared or pooled
+	private int keyDepth;
+	private AmfValuePool keyPool;
+	private boolean keyShared;
+	// when set values are taken from the pool, see decodeInto
+	private AmfValuePool pool;
+	private AmfValue[] references;
+	private TraitRegistry registry;
+	// when set immutable values are shared, see setSharedValues
+	private boolean shared;
+	private AmfString[] stringValues;
+	private String[] strings;
+	private SimpleTrait[] traits;
+	private String[] traitNameScratch;
+	private ByteBuffer wrapped;
+	// position and table sizes at the type marker of the value being read
+	private int valueStart;
+	private int valueStrings;
+	private int valueTraits;
+
+	/**
+	 * Gets the decoder kept for the calling thread, with the given
+	 * ExternalizableFactorys registered. If that decoder is already in use, a
+	 * new decoder is returned instead. The decoder must be given back with
+	 * {@link #release()} when done, and must not be used after that.
+	 * 
+	 * @param ext
+	 *            The ExternalizableFactorys to use, if any.
+	 * @return a decoder for the calling thread.
+	 */
+	public static AmfDecoder acquire(ExternalizableFactory... ext) {
+		AmfDecoder decoder = local.get();
+		if(decoder == null || decoder.acquired) {
+			decoder = new AmfDecoder();
+			if(local.get() == null) {
+				local.set(decoder);
+			}
+		}
+		decoder.acquired = true;
+		for(ExternalizableFactory factory : ext) {
+			decoder.addExternalizableFactory(factory);
+		}
+		return decoder;
+	}
+
+	/**
+	 * Creates a new decoder with the given ExternalizableFactorys.
+	 * 
+	 * @param ext
+	 *            The ExternalizableFactorys to use, if any.
+	 */
+	public AmfDecoder(ExternalizableFactory... ext) {
+		this.references = new AmfValue[16];
+		this.strings = new String[16];
+		this.traits = new SimpleTrait[8];
+		frameCount = new int[8];
+		frameIndex = new int[8];
+		frameKey = new Object[8];
+		frameKind = new int[8];
+		frameTrait = new SimpleTrait[8];
+		frameValue = new AmfValue[8];
+		for(ExternalizableFactory factory : ext) {
+			addExternalizableFactory(factory);
+		}
+	}
+
+	/**
+	 * Associates the specified ExternalizableFactory with this decoder. Every
+	 * ExternalizableFactory is called in the order they were added in attempt
+	 * to find one that will provide a proper Externalizable for use.
+	 * 
+	 * @param factory
+	 *            the ExternalizableFactory to add
+	 */
+	public void addExternalizableFactory(ExternalizableFactory factory) {
+		if(Objects.isNull(factory)) {
+			throw new IllegalArgumentException("The factory provided cannot be null.");
+		}
+		factories.add(factory);
+	}
+
+	/**
+	 * Sets the registry used to share traits and property names between
+	 * messages, or null to use none. A decoder from
+	 * {@link #acquire(ExternalizableFactory...)} drops its registry when it
+	 * is released.
+	 * 
+	 * @param registry
+	 *            the registry to use, may be null.
+	 */
+	public void setTraitRegistry(TraitRegistry registry) {
+		this.registry = registry;
+	}
+
+	/**
+	 * Sets the limits checked while decoding, or null for no limits. A
+	 * decoder from {@link #acquire(ExternalizableFactory...)} drops its limits
+	 * when it is released. See {@link DecodeLimits}.
+	 * 
+	 * @param limits
+	 *            the limits to use, may be null.
+	 */
+	@Override
+	public void setDecodeLimits(DecodeLimits limits) {
+		super.setDecodeLimits(limits);
+		if(pushDecoder != null) {
+			pushDecoder.setDecodeLimits(limits);
+		}
+	}
+
+	/**
+	 * Sets if values are shared to reduce allocation. When set, null,
+	 * undefined and booleans are decoded as the shared instances such as
+	 * {@link AmfNull#NULL}, small integers come from
+	 * {@link AmfInteger#valueOf(int)}, and each entry of the string table is
+	 * decoded into a single AmfString however often it is referenced. The
+	 * shared values cannot be modified. A decoder from
+	 * {@link #acquire(ExternalizableFactory...)} stops sharing values when it
+	 * is released.
+	 * 
+	 * @param shared
+	 *            true to share values, false to create a new value each time.
+	 */
+	public void setSharedValues(boolean shared) {
+		this.shared = shared;
+		if(shared && stringValues == null) {
+			stringValues = new AmfString[strings.length];
+		}
+	}
+
+	/**
+	 * Indicates if values are shared, see {@link #setSharedValues(boolean)}.
+	 * 
+	 * @return true if values are shared, false otherwise.
+	 */
+	public boolean isSharedValues() {
+		return shared;
+	}
+
+	/**
+	 * Sets if byte arrays are decoded as views of the input rather than
+	 * copies of it. When set, each {@link AmfByteArray} keeps a reference to
+	 * the buffer or array decoded, which must not be modified while the byte
+	 * array is in use, and its bytes are only copied if bytes are pushed onto
+	 * it. Large byte arrays that are only read or encoded again are never
+	 * copied. Byte arrays decoded from streams are always copies. A decoder
+	 * from {@link #acquire(ExternalizableFactory...)} stops making views when
+	 * it is released.
+	 * 
+	 * @param views
+	 *            true to decode byte arrays as views, false to copy them.
+	 */
+	public void setByteArrayViews(boolean views) {
+		this.views = views;
+	}
+
+	/**
+	 * Indicates if byte arrays are decoded as views of the input, see
+	 * {@link #setByteArrayViews(boolean)}.
+	 * 
+	 * @return true if byte arrays are views, false otherwise.
+	 */
+	public boolean isByteArrayViews() {
+		return views;
+	}
+
+	/**
+	 * Gets the registry used to share traits and property names between
+	 * messages.
+	 * 
+	 * @return the registry, or null if there is none.
+	 */
+	public TraitRegistry getTraitRegistry() {
+		return registry;
+	}
+
+	/**
+	 * Decodes a single AmfValue from the given byte array.
+	 * 
+	 * @param data
+	 *            The array to read from.
+	 * @return The AmfValue read.
+	 * @throws IOException
+	 *             if an externalizable encountered an I/O error.
+	 * @throws UnexpectedDataException
+	 *             if invalid data was found during the read, often occurs with
+	 *             an invalid or unsupported format.
+	 */
+	public AmfValue decode(byte[] data) throws IOException, UnexpectedDataException {
+		return decode(ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * Decodes a single AmfValue from the given region of a byte array.
+	 * 
+	 * @param data
+	 *            The array to read from.
+	 * @param offset
+	 *            The offset of the value in the array.
+	 * @param length
+	 *            The number of bytes available to read.
+	 * @return The AmfValue read.
+	 * @throws IOException
+	 *             if an externalizable encountered an I/O error.
+	 * @throws UnexpectedDataException
+	 *             if invalid data was found during the read, often occurs with
+	 *             an invalid or unsupported format.
+	 */
+	public AmfValue decode(byte[] data, int offset, int length) throws IOException, UnexpectedDataException {
+		return decode(ByteBuffer.wrap(data, offset, length));
+	}
+
+	/**
+	 * Decodes a single AmfValue from the given byte array into values taken
+	 * from the given pool. Once the pool has grown to hold the values of the
+	 * messages decoded, the objects, arrays, numbers, strings, byte arrays and
+	 * numeric vectors of a message are decoded without allocating, as are its
+	 * property names if a {@link TraitRegistry} is set. Dynamic and
+	 * associative members, dictionaries, dates, XML and generic vectors are
+	 * still allocated.
+	 * 
+	 * <p>
+	 * The value returned, and every value in it, belongs to the pool and is
+	 * reused once {@link AmfValuePool#release()} is called, so it must not be
+	 * kept past that. Values from the pool may be modified by the caller,
+	 * except for null, undefined and booleans, which are always the shared
+	 * instances. See {@link #setSharedValues(boolean)}.
+	 * </p>
+	 * 
+	 * @param data
+	 *            The array to read from.
+	 * @param pool
+	 *            The pool to take values from.
+	 * @return The AmfValue read.
+	 * @throws IOException
+	 *             if an externalizable encountered an I/O error.
+	 * @throws UnexpectedDataException
+	 *             if invalid data was found during the read, often occurs with
+	 *             an invalid or unsupported format.
+	 */
+	public AmfValue decodeInto(byte[] data, AmfValuePool pool) throws IOException, UnexpectedDataException {
+		if(pool == null) {
+			throw new IllegalArgumentException("The pool provided cannot be null.");
+		}
+		// the wrapper is kept, so decoding the same array again allocates
+		// nothing, it is never handed out so no duplicate is needed
+		if(wrapped == null || wrapped.array() != data) {
+			wrapped = ByteBuffer.wrap(data);
+		}
+		buf = wrapped;
+		pos = 0;
+		limit = data.length;
+		this.pool = pool;
+		try {
+			return readValue();
+		} finally {
+			clearTables();
+			clearInput();
+			this.pool = null;
+		}
+	}
+
+	/**
+	 * Decodes a single AmfValue from the given input stream. The stream is
+	 * read in blocks, so data past the end of the value may be read from it.
+	 * The stream is not closed.
+	 * 
+	 * @param input
+	 *            The stream to read from.
+	 * @return The AmfValue read.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 * @throws UnexpectedDataException
+	 *             if invalid data was found during the read, often occurs with
+	 *             an invalid or unsupported format.
+	 */
+	public AmfValue decode(InputStream input) throws IOException, UnexpectedDataException {
+		if(pushDecoder == null) {
+			pushDecoder = new AmfPushDecoder(factories);
+			pushDecoder.setDecodeLimits(getDecodeLimits());
+		}
+		pushDecoder.setTraitRegistry(registry);
+		if(streamBuffer == null) {
+			streamBuffer = new byte[8192];
+		}
+		if(streamView == null || streamView.array() != streamBuffer) {
+			streamView = ByteBuffer.wrap(streamBuffer);
+		}
+		try {
+			while(true) {
+				int read = input.read(streamBuffer);
+				if(read < 0) {
+					throw new UnexpectedDataException("Unexpected end of data.");
+				}
+				streamView.clear();
+				streamView.limit(read);
+				AmfValue value = pushDecoder.feed(streamView);
+				if(value != AmfPushDecoder.NEED_MORE_INPUT) {
+					return value;
+				}
+			}
+		} finally {
+			pushDecoder.reset();
+		}
+	}
+
+	/**
+	 * Decodes a single AmfValue from the given buffer, starting at its current
+	 * position. On success the position of the buffer is advanced past the
+	 * value read.
+	 * 
+	 * @param buffer
+	 *            The buffer to read from.
+	 * @return The AmfValue read.
+	 * @throws IOException
+	 *             if an externalizable encountered an I/O error.
+	 * @throws UnexpectedDataException
+	 *             if invalid data was found during the read, often occurs with
+	 *             an invalid or unsupported format.
+	 */
+	public AmfValue decode(ByteBuffer buffer) throws IOException, UnexpectedDataException {
+		setInput(buffer);
+		try {
+			AmfValue value = readValue();
+			buffer.position(pos);
+			return value;
+		} finally {
+			clearTables();
+			clearInput();
+		}
+	}
+
+	/**
+	 * Decodes a single AmfValue from the given buffer, starting at its current
+	 * position, without decoding the members of objects and arrays. The maps
+	 * and lists of each {@link AmfObject} and {@link AmfArray} are backed by
+	 * the encoded data, and a member is only decoded when it is first
+	 * accessed. Members that are never accessed are never created. Iterating
+	 * over or modifying a map or list decodes all of its members, but not
+	 * their members in turn. On success the position of the buffer is
+	 * advanced past the value read.
+	 * 
+	 * <p>
+	 * The value keeps a reference to the buffer, which must not be modified
+	 * while the value is in use. Its byte arrays are views of the buffer, see
+	 * {@link #setByteArrayViews(boolean)}. The value returned is not thread
+	 * safe, even for reading, until all of its members have been decoded.
+	 * This decoder may be used again right away.
+	 * </p>
+	 * 
+	 * @param buffer
+	 *            The buffer to read from.
+	 * @return The AmfValue read.
+	 * @throws IOException
+	 *             if an externalizable encountered an I/O error.
+	 * @throws UnexpectedDataException
+	 *             if invalid data was found during the read, often occurs with
+	 *             an invalid or unsupported format.
+	 */
+	public AmfValue decodeLazy(ByteBuffer buffer) throws IOException, UnexpectedDataException {
+		// the lazy members hold on to the decoder, so it needs one of its own
+		AmfDecoder decoder = new AmfDecoder();
+		decoder.factories.addAll(factories);
+		decoder.registry = registry;
+		decoder.setSharedValues(shared);
+		decoder.setDecodeLimits(getDecodeLimits());
+		decoder.lazy = true;
+		decoder.views = true;
+		// each lazy container skips its members again, which then skips
+		// nested containers in a single step
+		decoder.recordSkips();
+		decoder.setInput(buffer);
+		AmfValue value = decoder.readValue();
+		buffer.position(decoder.pos);
+		return value;
+	}
+
+	/**
+	 * Decodes a SOL file from the given input stream, which is read to its
+	 * end. The stream is not closed.
+	 * 
+	 * @param input
+	 *            The stream to read from.
+	 * @return The AmfFile read.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 * @throws UnexpectedDataException
+	 *             if invalid data was found during the read, often occurs with
+	 *             an invalid or unsupported format.
+	 */
+	public AmfFile decodeFile(InputStream input) throws IOException, UnexpectedDataException {
+		if(streamBuffer == null) {
+			streamBuffer = new byte[8192];
+		}
+		int length = 0;
+		while(true) {
+			if(length == streamBuffer.length) {
+				streamBuffer = Arrays.copyOf(streamBuffer, length << 1);
+			}
+			int read = input.read(streamBuffer, length, streamBuffer.length - length);
+			if(read < 0) {
+				break;
+			}
+			length += read;
+		}
+		// the stream buffer is reused, so byte arrays cannot be views of it
+		boolean views = this.views;
+		this.views = false;
+		try {
+			return decodeFile(ByteBuffer.wrap(streamBuffer, 0, length));
+		} finally {
+			this.views = views;
+		}
+	}
+
+	/**
+	 * Decodes a SOL file from the given buffer, starting at its current
+	 * position. The buffer must contain the whole file, as the size stored
+	 * in the file header is checked against the number of bytes remaining
+	 * before anything else is decoded. On success the position of the buffer
+	 * is advanced to its limit.
+	 * 
+	 * @param buffer
+	 *            The buffer containing the file.
+	 * @return The AmfFile read.
+	 * @throws IOException
+	 *             if an externalizable encountered an I/O error.
+	 * @throws UnexpectedDataException
+	 *             if invalid data was found during the read, often occurs with
+	 *             an invalid or unsupported format.
+	 */
+	public AmfFile decodeFile(ByteBuffer buffer) throws IOException, UnexpectedDataException {
+		return decodeFile(buffer, null);
+	}
+
+	/**
+	 * Decodes the entries with the given keys from a SOL file in the given
+	 * buffer. The values of all other entries are skipped without being
+	 * created. See {@link #decodeFile(ByteBuffer)}.
+	 * 
+	 * @param buffer
+	 *            The buffer containing the file.
+	 * @param keys
+	 *            The keys of the entries to decode, or null to decode every
+	 *            entry.
+	 * @return The AmfFile read, containing only the entries requested.
+	 * @throws IOException
+	 *             if an externalizable encountered an I/O error.
+	 * @throws UnexpectedDataException
+	 *             if invalid data was found during the read, often occurs with
+	 *             an invalid or unsupported format.
+	 */
+	public AmfFile decodeFile(ByteBuffer buffer, Set<String> keys) throws IOException, UnexpectedDataException {
+		try {
+			AmfFile file = new AmfFile();
+			file.setName(openFile(buffer));
+			while(hasNextEntry()) {
+				String key = readEntryKey();
+				if(keys == null || keys.contains(key)) {
+					file.put(key, readValue());
+					skipEntryTrailer();
+				} else {
+					skipEntryValue();
+				}
+			}
+			buffer.position(pos);
+			return file;
+		} finally {
+			clearTables();
+			clearInput();
+		}
+	}
+
+	/**
+	 * Gives this decoder back after {@link #acquire(ExternalizableFactory...)}.
+	 * The decoder is reset and its ExternalizableFactorys, registry and decode
+	 * limits are removed.
+	 */
+	public void release() {
+		reset();
+		factories.clear();
+		registry = null;
+		shared = false;
+		views = false;
+		wrapped = null;
+		setDecodeLimits(null);
+		if(streamBuffer != null && streamBuffer.length > MAX_KEPT_CAPACITY) {
+			streamBuffer = null;
+			streamView = null;
+		}
+		acquired = false;
+	}
+
+	/**
+	 * Clears the string, trait and reference tables and releases the input,
+	 * keeping the backing arrays. The decode methods do this when they are
+	 * done, so this is only needed to drop a decoder that is in the middle of
+	 * a read.
+	 */
+	public void reset() {
+		clearTables();
+		clearInput();
+		if(pushDecoder != null) {
+			pushDecoder.reset();
+		}
+	}
+
+	@Override
+	protected void clearTables() {
+		Arrays.fill(references, 0, Math.min(referenceCount, references.length), null);
+		Arrays.fill(strings, 0, Math.min(stringCount, strings.length), null);
+		if(stringValues != null) {
+			Arrays.fill(stringValues, 0, Math.min(stringCount, stringValues.length), null);
+		}
+		Arrays.fill(traits, 0, Math.min(traitCount, traits.length), null);
+		unwind(0, 0);
+		super.clearTables();
+	}
+
+	/**
+	 * Decodes the value at the given position, with the tables rewound to the
+	 * given sizes. The tables are restored afterwards.
+	 */
+	AmfValue decodeAt(int offset, int strings, int traits, int references)
+			throws IOException, UnexpectedDataException {
+		int mark = pos;
+		int markStrings = stringCount;
+		int markTraits = traitCount;
+		int markProperties = traitPropertyCount;
+		int markReferences = referenceCount;
+		int markNesting = nesting;
+		int markDepth = depth;
+		int markKeys = keyDepth;
+		pos = offset;
+		rewindTables(strings, traits);
+		referenceCount = references;
+		try {
+			return readValue();
+		} finally {
+			pos = mark;
+			stringCount = markStrings;
+			traitCount = markTraits;
+			traitPropertyCount = markProperties;
+			referenceCount = markReferences;
+			unwind(markDepth, markKeys);
+			nesting = markNesting;
+		}
+	}
+
+	/**
+	 * Decodes only the value found by following the given path from the value
+	 * at the position of the buffer. Everything along the way is skipped,
+	 * apart from the object tables. The position of the buffer is not
+	 * modified.
+	 * 
+	 * @return the value, or null if the path does not lead to a value.
+	 */
+	AmfValue decodePath(ByteBuffer buffer, byte[][] names, int[] indexes)
+			throws IOException, UnexpectedDataException {
+		setInput(buffer);
+		try {
+			int found = FOUND_VALUE;
+			for(int i = 0; i < names.length; ++i) {
+				if(found != FOUND_VALUE) {
+					// a vector element has no members
+					return null;
+				}
+				found = seekMember(names[i], indexes[i]);
+				if(found == FOUND_NONE) {
+					return null;
+				}
+			}
+			switch(found) {
+			case FOUND_DOUBLE:
+				return new AmfDouble(buf.getDouble(pos));
+			case FOUND_INT:
+				return new AmfInteger(buf.getInt(pos));
+			default:
+				return readValue();
+			}
+		} finally {
+			clearTables();
+			clearInput();
+		}
+	}
+
+	/**
+	 * Moves to the member of the value at the current position with the given
+	 * name, or the given index if the name is null. Members before it are
+	 * skipped. References are followed by going back to the referenced value
+	 * and reading it again.
+	 * 
+	 * @return one of the FOUND constants, which tells what is at the new
+	 *         position.
+	 */
+	private int seekMember(byte[] name, int index) throws IOException, UnexpectedDataException {
+		int start = pos;
+		int strings = stringCount;
+		int traits = traitCount;
+		int typeId = readUnsignedByte();
+		AmfType type = AmfType.get(typeId);
+		if(type == null) {
+			throw new UnexpectedDataException(String.format("Unknown Value Type: 0x%x", typeId));
+		}
+		switch(type) {
+		case Object:
+		case Array:
+		case Dictionary:
+		case VectorInt:
+		case VectorUInt:
+		case VectorDouble:
+		case VectorGeneric:
+			break;
+		default:
+			return FOUND_NONE;
+		}
+
+		int h = readU29();
+		if((h & 1) == 0) {
+			int ref = h >>> 1;
+			checkReference(ref);
+			// read the referenced value again, which records the same table
+			// entries it did the first time
+			pos = referenceOffsets[ref];
+			rewindTables(referenceStrings[ref], referenceTraits[ref]);
+			referenceCount = ref;
+			return seekMember(name, index);
+		}
+		h >>>= 1;
+
+		if(type == AmfType.Object) {
+			int trait = readTraitIndex(h);
+			addReference(start, strings, traits);
+			int flags = traitFlags[trait];
+			if(name == null || (flags & TRAIT_EXTERNALIZABLE) != 0) {
+				return FOUND_NONE;
+			}
+			int count = flags >>> 2;
+			int props = traitStarts[trait];
+			for(int i = 0; i < count; ++i) {
+				if(tableStringEquals(traitProperties[props + i], name)) {
+					return FOUND_VALUE;
+				}
+				skipEncodedValue();
+			}
+			if((flags & TRAIT_DYNAMIC) != 0) {
+				for(int key = readStringIndex(); key != -1; key = readStringIndex()) {
+					if(tableStringEquals(key, name)) {
+						return FOUND_VALUE;
+					}
+					skipEncodedValue();
+				}
+			}
+			return FOUND_NONE;
+		}
+
+		addReference(start, strings, traits);
+		switch(type) {
+		case Array:
+			for(int key = readStringIndex(); key != -1; key = readStringIndex()) {
+				if(name != null && tableStringEquals(key, name)) {
+					return FOUND_VALUE;
+				}
+				skipEncodedValue();
+			}
+			if(name != null || index >= h) {
+				return FOUND_NONE;
+			}
+			for(int i = 0; i < index; ++i) {
+				skipEncodedValue();
+			}
+			return FOUND_VALUE;
+
+		case Dictionary:
+			skipBytes(1);
+			for(int i = 0; i < h; ++i) {
+				int keyType = readUnsignedByte();
+				if(name != null && keyType == AmfType.String.id) {
+					if(tableStringEquals(readStringIndex(), name)) {
+						return FOUND_VALUE;
+					}
+				} else if(name == null && keyType == AmfType.Integer.id) {
+					if(readS29() == index) {
+						return FOUND_VALUE;
+					}
+				} else {
+					--pos;
+					skipEncodedValue();
+				}
+				skipEncodedValue();
+			}
+			return FOUND_NONE;
+
+		case VectorGeneric:
+			skipBytes(1);
+			readStringIndex();
+			if(name != null || index >= h) {
+				return FOUND_NONE;
+			}
+			for(int i = 0; i < index; ++i) {
+				skipEncodedValue();
+			}
+			return FOUND_VALUE;
+
+		default:
+			// the int, uint and double vectors
+			skipBytes(1);
+			if(name != null || index >= h) {
+				return FOUND_NONE;
+			}
+			if(type == AmfType.VectorDouble) {
+				require(h << 3);
+				pos += index << 3;
+				return FOUND_DOUBLE;
+			}
+			require(h << 2);
+			pos += index << 2;
+			return FOUND_INT;
+		}
+	}
+
+	/**
+	 * Returns the value in the reference table made for the value starting at
+	 * {@link #valueStart}, if it was decoded before, in which case the value
+	 * is skipped. This only happens when data is decoded again after it was
+	 * first skipped.
+	 */
+	private AmfValue getDecoded() throws IOException, UnexpectedDataException {
+		int index = referenceCount;
+		if(index < references.length && references[index] != null) {
+			pos = valueStart;
+			rewindTables(valueStrings, valueTraits);
+			skipEncodedValue();
+			return references[index];
+		}
+		return null;
+	}
+
+	/**
+	 * Gets the referenced value, which must be of the type given by the
+	 * marker that referenced it.
+	 */
+	private <T extends AmfValue> T getReference(int index, Class<T> type) throws IOException, UnexpectedDataException {
+		checkReference(index);
+		if(index >= references.length) {
+			references = Arrays.copyOf(references, referenceOffsets.length);
+		}
+		AmfValue value = references[index];
+		if(value == null) {
+			// it was skipped
+			value = decodeAt(referenceOffsets[index], referenceStrings[index], referenceTraits[index], index);
+		}
+		if(!type.isInstance(value)) {
+			throw new UnexpectedDataException(String.format("Invalid object reference: %d is not a %s", index, type.getSimpleName()));
+		}
+		return type.cast(value);
+	}
+
+	private String getString(int index) throws UnexpectedDataException {
+		if(index < 0) {
+			return "";
+		}
+		if(index >= strings.length) {
+			strings = Arrays.copyOf(strings, stringOffsets.length);
+		}
+		String str = strings[index];
+		if(str == null) {
+			addBytes(stringLengths[index]);
+			str = getTableString(index);
+			strings[index] = str;
+		}
+		return str;
+	}
+
+	/**
+	 * Gets the shared AmfString for the given index of the string table.
+	 */
+	private AmfString getStringValue(int index) throws UnexpectedDataException {
+		if(index < 0) {
+			return AmfString.EMPTY;
+		}
+		if(index >= stringValues.length) {
+			stringValues = Arrays.copyOf(stringValues, stringOffsets.length);
+		}
+		AmfString value = stringValues[index];
+		if(value == null) {
+			value = AmfString.constant(getString(index));
+			stringValues[index] = value;
+		}
+		return value;
+	}
+
+	/**
+	 * Gets the string at the given index of the string table as a property
+	 * name, which is taken from the registry if there is one.
+	 */
+	private String getName(int index) throws UnexpectedDataException {
+		if(registry == null || index < 0) {
+			return getString(index);
+		}
+		if(index >= strings.length) {
+			strings = Arrays.copyOf(strings, stringOffsets.length);
+		}
+		int offset = stringOffsets[index];
+		int length = stringLengths[index];
+		String str = registry.lookup(buf, offset, length);
+		if(str == null) {
+			str = strings[index];
+			if(str == null) {
+				addBytes(length);
+				str = getTableString(index);
+			}
+			str = registry.register(buf, offset, length, str);
+		}
+		strings[index] = str;
+		return str;
+	}
+
+	private SimpleTrait getTrait(int index) throws UnexpectedDataException {
+		if(index >= traits.length) {
+			traits = Arrays.copyOf(traits, traitFlags.length);
+		}
+		SimpleTrait trait = traits[index];
+		if(trait == null) {
+			int flags = traitFlags[index];
+			int count = flags >>> 2;
+			boolean dynamic = (flags & TRAIT_DYNAMIC) != 0;
+			boolean externalizable = (flags & TRAIT_EXTERNALIZABLE) != 0;
+			String name = getName(traitNames[index]);
+			int start = traitStarts[index];
+			if(registry == null) {
+				String[] props = new String[count];
+				for(int i = 0; i < count; ++i) {
+					props[i] = getName(traitProperties[start + i]);
+				}
+				trait = new SimpleTrait(name, dynamic, externalizable, props);
+			} else {
+				// look the trait up by its names first, so a known trait
+				// allocates nothing
+				if(traitNameScratch == null || traitNameScratch.length < count) {
+					traitNameScratch = new String[Math.max(count, 16)];
+				}
+				String[] props = traitNameScratch;
+				for(int i = 0; i < count; ++i) {
+					props[i] = getName(traitProperties[start + i]);
+				}
+				trait = registry.find(name, dynamic, externalizable, props, count);
+				if(trait == null) {
+					trait = registry.intern(new SimpleTrait(name, dynamic, externalizable, Arrays.copyOf(props, count)));
+				}
+				Arrays.fill(props, 0, count, null);
+			}
+			traits[index] = trait;
+		}
+		return trait;
+	}
+
+	boolean hasNextEntry() {
+		return pos < limit;
+	}
+
+	/**
+	 * Sets the given buffer as input and reads the SOL file header.
+	 * 
+	 * @return the name stored in the file.
+	 */
+	String openFile(ByteBuffer buffer) throws UnexpectedDataException {
+		setInput(buffer);
+		clearTables();
+		return readFileHeader();
+	}
+
+	String readEntryKey() throws UnexpectedDataException {
+		return readString();
+	}
+
+	/**
+	 * Records the given value in the reference table, for the value starting
+	 * at {@link #valueStart}.
+	 */
+	private void register(AmfValue value) throws UnexpectedDataException {
+		int index = addReference(valueStart, valueStrings, valueTraits);
+		if(index >= references.length) {
+			references = Arrays.copyOf(references, referenceOffsets.length);
+		}
+		references[index] = value;
+	}
+
+	void skipEntryTrailer() {
+		// trailer, skip byte
+		if(pos < limit) {
+			++pos;
+		}
+	}
+
+	void skipEntryValue() throws IOException, UnexpectedDataException {
+		skipEncodedValue();
+		skipEntryTrailer();
+	}
+
+	private AmfXml _readXml(boolean isDocument) throws IOException, UnexpectedDataException {
+		// Stored by ref?
+		int h = readU29();
+		if((h & 1) == 0) {
+			return getReference(h >>> 1, AmfXml.class);
+		}
+
+		// Stored by value
+		AmfValue decoded = getDecoded();
+		if(decoded != null) {
+			return (AmfXml) decoded;
+		}
+		int length = h >>> 1;
+		checkLength(length, false);
+		addBytes(length);
+		AmfXml result = new AmfXml(isDocument);
+		register(result);
+		result.setValue(readUTF8(length));
+		return result;
+	}
+
+	/**
+	 * Reads the header of an array. Unless the array is lazy or stored by
+	 * reference a frame is pushed for its members and null is returned.
+	 */
+	private AmfArray readArray() throws IOException, UnexpectedDataException {
+		// Stored by ref?
+		int h = readU29();
+		if((h & 1) == 0) {
+			return getReference(h >>> 1, AmfArray.class);
+		}
+
+		// Stored by value
+		AmfValue decoded = getDecoded();
+		if(decoded != null) {
+			return (AmfArray) decoded;
+		}
+		int count = h >>> 1;
+		checkElements(count);
+		if(!lazy) {
+			AmfArray result = pool != null ? pool.takeArray() : new AmfArray();
+			register(result);
+			push(FRAME_ARRAY_ASSOCIATIVE, result, count, null);
+			return null;
+		}
+
+		// every element takes at least a byte, and four ints to record
+		addBytes((long) count << 4);
+		AmfLazyList list = new AmfLazyList(this, Math.min(count, limit - pos));
+		AmfArray result = new AmfArray(list, new AmfLazyMap(this, 4));
+		register(result);
+
+		// Associative part (key-value pairs)
+		Map<String, AmfValue> map = result.getAssociative();
+		while(true) {
+			String key = getName(readStringIndex());
+			if(key.length() == 0) {
+				break;
+			}
+			readMember(map, key);
+		}
+
+		// Dense part (consecutive indices >=0 and <count)
+		for(int i = 0; i < count; i++) {
+			list.add(pos, stringCount, traitCount, referenceCount);
+			skipEncodedValue();
+		}
+
+		return result;
+	}
+
+	private AmfByteArray readByteArray() throws IOException, UnexpectedDataException {
+		// Stored by ref?
+		int h = readU29();
+		if((h & 1) == 0) {
+			return getReference(h >>> 1, AmfByteArray.class);
+		}
+
+		// Stored by value
+		AmfValue decoded = getDecoded();
+		if(decoded != null) {
+			return (AmfByteArray) decoded;
+		}
+		int length = h >>> 1;
+		require(length);
+		checkLength(length, true);
+		addBytes(length);
+		AmfByteArray aba = pool != null ? pool.takeByteArray() : new AmfByteArray();
+		if(views) {
+			aba.setView(view(pos, length));
+			pos += length;
+		} else {
+			readBytes(aba.prepare(length), 0, length);
+		}
+		register(aba);
+		return aba;
+	}
+
+	private AmfDate readDate() throws IOException, UnexpectedDataException {
+		// Stored by ref?
+		int h = readU29();
+		if((h & 1) == 0) {
+			return getReference(h >>> 1, AmfDate.class);
+		}
+
+		// Stored by value
+		AmfValue decoded = getDecoded();
+		if(decoded != null) {
+			return (AmfDate) decoded;
+		}
+		AmfDate date = new AmfDate(readDouble());
+		register(date);
+		return date;
+	}
+
+	/**
+	 * Reads the header of a dictionary. Unless it is stored by reference a
+	 * frame is pushed for its entries and null is returned.
+	 */
+	private AmfDictionary readDictionary() throws IOException, UnexpectedDataException {
+		// Stored by ref?
+		int h = readU29();
+		if((h & 1) == 0) {
+			return getReference(h >>> 1, AmfDictionary.class);
+		}
+
+		// Stored by value
+		AmfValue decoded = getDecoded();
+		if(decoded != null) {
+			return (AmfDictionary) decoded;
+		}
+		int count = h >>> 1;
+		checkElements(count);
+		boolean weakKeys = readBoolean();
+		AmfDictionary result = new AmfDictionary(weakKeys);
+		register(result);
+		push(FRAME_DICTIONARY, result, count, null);
+		return null;
+	}
+
+	private String readFileHeader() throws UnexpectedDataException {
+		int start = pos;
+		if(readUnsignedByte() != 0x0) {
+			throw new UnexpectedDataException("Unknown Endianness");
+		}
+		if(readUnsignedByte() != 0xBF) {
+			throw new UnexpectedDataException("Unknown Endianness");
+		}
+
+		// Size, does not include the endianness marker or the size itself
+		long size = readInt() & 0xFFFFFFFFL;
+		if(size + 6 != limit - start) {
+			throw new UnexpectedDataException("Wrong file size");
+		}
+
+		// Magic signature
+		String magic = readString(4);
+		if(!"TCSO".equals(magic)) {
+			throw new UnexpectedDataException("Wrong file tag");
+		}
+		skipBytes(6);
+
+		// Read name
+		String name = readString(readUnsignedShort());
+
+		// Version
+		int version = readInt();
+		if(version < 3) {
+			throw new UnexpectedDataException("Wrong AMF version");
+		}
+
+		return name;
+	}
+
+	/**
+	 * Records where the value of a member of a lazy map is, and skips it.
+	 */
+	private void readMember(Map<String, AmfValue> map, String key) throws IOException, UnexpectedDataException {
+		((AmfLazyMap) map).add(key, pos, stringCount, traitCount, referenceCount);
+		skipEncodedValue();
+	}
+
+	/**
+	 * Reads the header and trait of an object. Unless the object is lazy or
+	 * stored by reference a frame is pushed for its members and null is
+	 * returned.
+	 */
+	private AmfObject readObject() throws IOException, UnexpectedDataException {
+		int h = readU29();
+		if((h & 1) == 0) {
+			return getReference(h >>> 1, AmfObject.class);
+		}
+
+		AmfValue decoded = getDecoded();
+		if(decoded != null) {
+			return (AmfObject) decoded;
+		}
+		SimpleTrait trait = getTrait(readTraitIndex(h >>> 1));
+		AmfObject result;
+		if(!lazy) {
+			if(trait.hasUniqueProperties()) {
+				result = pool != null ? pool.takeObject(trait) : new AmfObject(trait);
+			} else {
+				result = new AmfObject();
+				result.setTrait(trait);
+			}
+			register(result);
+			push(FRAME_OBJECT_SEALED, result, trait.getProperties().size(), trait);
+			frameKey[depth - 1] = result.getSlots();
+			return null;
+		}
+
+		result = new AmfObject(new AmfLazyMap(this, trait.getProperties().size()), new AmfLazyMap(this, 4));
+		result.setTrait(trait);
+		register(result);
+
+		// read sealed properties
+		Map<String, AmfValue> map = result.getSealedMap();
+		for(String property : trait.getProperties()) {
+			readMember(map, property);
+		}
+
+		// read dynamic properties
+		if(trait.isDynamic()) {
+			while(true) {
+				String key = getName(readStringIndex());
+				if(key.length() == 0) {
+					break;
+				}
+				readMember(result.getDynamicMap(), key);
+			}
+		}
+
+		// read custom data
+		if(trait.isExternalizable()) {
+			result.setExternalizableObject(readExternalizable(trait.getName()));
+		}
+
+		return result;
+	}
+
+	/**
+	 * Reads a string into an AmfString from the pool, keeping the string it
+	 * held before if it is the same, so repeated messages decode no strings.
+	 */
+	private AmfString readPooledString() throws UnexpectedDataException {
+		int index = readStringIndex();
+		AmfString result = pool.takeString();
+		if(index < 0) {
+			result.setValue("");
+		} else if(index < strings.length && strings[index] != null) {
+			result.setValue(strings[index]);
+		} else if(tableStringMatches(index, result.getValue())) {
+			if(index >= strings.length) {
+				strings = Arrays.copyOf(strings, stringOffsets.length);
+			}
+			strings[index] = result.getValue();
+		} else {
+			result.setValue(getString(index));
+		}
+		return result;
+	}
+
+	private String readString() throws UnexpectedDataException {
+		return getString(readStringIndex());
+	}
+
+	/**
+	 * Reads the next value. Containers are read with a stack of frames rather
+	 * than by recursion, so values can be nested as deep as memory allows.
+	 * Each pass of the loop adds the value just completed, if any, to the
+	 * container on top of the stack and reads members of that container up
+	 * to the next one that is a container itself.
+	 */
+	private AmfValue readValue() throws IOException, UnexpectedDataException {
+		int base = depth;
+		AmfValue value = startValue();
+		while(value == null || depth != base) {
+			int d = depth - 1;
+			switch(frameKind[d]) {
+			case FRAME_ARRAY_ASSOCIATIVE: {
+				Map<String, AmfValue> map = ((AmfArray) frameValue[d]).getAssociative();
+				String key = (String) frameKey[d];
+				while(true) {
+					if(value != null) {
+						map.put(key, value);
+					}
+					key = getName(readStringIndex());
+					if(key.length() == 0) {
+						frameKind[d] = FRAME_ARRAY_DENSE;
+						frameKey[d] = null;
+						break;
+					}
+					if((value = startValue()) == null) {
+						frameKey[d] = key;
+						break;
+					}
+				}
+				value = null;
+				continue;
+			}
+
+			case FRAME_ARRAY_DENSE: {
+				List<AmfValue> list = ((AmfArray) frameValue[d]).getDense();
+				int i = frameIndex[d];
+				if(value != null) {
+					list.add(value);
+					++i;
+				}
+				for(int count = frameCount[d]; i < count; ++i) {
+					if((value = startValue()) == null) {
+						break;
+					}
+					list.add(value);
+				}
+				if(value == null && i < frameCount[d]) {
+					frameIndex[d] = i;
+					continue;
+				}
+				value = pop();
+				continue;
+			}
+
+			case FRAME_OBJECT_SEALED: {
+				AmfValue[] slots = (AmfValue[]) frameKey[d];
+				SimpleTrait trait = frameTrait[d];
+				int i = frameIndex[d];
+				for(int count = frameCount[d]; i < count; ++i) {
+					if(value == null && (value = startValue()) == null) {
+						break;
+					}
+					if(slots != null) {
+						slots[i] = value;
+					} else {
+						((AmfObject) frameValue[d]).getSealedMap().put(trait.getProperties().get(i), value);
+					}
+					value = null;
+				}
+				if(i < frameCount[d]) {
+					frameIndex[d] = i;
+				} else if(trait.isDynamic()) {
+					frameKind[d] = FRAME_OBJECT_DYNAMIC;
+					frameKey[d] = null;
+				} else {
+					value = endObject();
+				}
+				continue;
+			}
+
+			case FRAME_OBJECT_DYNAMIC: {
+				Map<String, AmfValue> map = ((AmfObject) frameValue[d]).getDynamicMap();
+				String key = (String) frameKey[d];
+				while(true) {
+					if(value != null) {
+						map.put(key, value);
+					}
+					key = getName(readStringIndex());
+					if(key.length() == 0) {
+						value = endObject();
+						break;
+					}
+					if((value = startValue()) == null) {
+						frameKey[d] = key;
+						break;
+					}
+				}
+				continue;
+			}
+
+			case FRAME_DICTIONARY: {
+				Map<AmfValue, AmfValue> map = ((AmfDictionary) frameValue[d]).getMap();
+				while(true) {
+					if(value != null) {
+						if(frameKey[d] == null) {
+							frameKey[d] = value;
+							endKey();
+						} else {
+							map.put((AmfValue) frameKey[d], value);
+							frameKey[d] = null;
+							++frameIndex[d];
+						}
+					}
+					if(frameKey[d] == null) {
+						if(frameIndex[d] == frameCount[d]) {
+							value = pop();
+							break;
+						}
+						startKey();
+					}
+					if((value = startValue()) == null) {
+						break;
+					}
+				}
+				continue;
+			}
+
+			default: {
+				// generic vector elements
+				AmfVector.Generic vector = (AmfVector.Generic) frameValue[d];
+				int i = frameIndex[d];
+				if(value != null) {
+					vector.add(value);
+					++i;
+				}
+				for(int count = frameCount[d]; i < count; ++i) {
+					if((value = startValue()) == null) {
+						break;
+					}
+					vector.add(value);
+				}
+				if(value == null && i < frameCount[d]) {
+					frameIndex[d] = i;
+					continue;
+				}
+				value = pop();
+				continue;
+			}
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Reads a value, or only the start of it if it is a container, see
+	 * {@link #push(int, AmfValue, int, SimpleTrait)}.
+	 * 
+	 * @return the value, or null if a frame was pushed for it.
+	 */
+	private AmfValue startValue() throws IOException, UnexpectedDataException {
+		valueStart = pos;
+		valueStrings = stringCount;
+		valueTraits = traitCount;
+		addBytes(DecodeLimits.VALUE_SIZE);
+		int typeId = readUnsignedByte();
+		AmfType type = AmfType.get(typeId);
+		if(type == null) {
+			throw new UnexpectedDataException(String.format("Unknown Value Type: 0x%x", typeId));
+		}
+		switch(type) {
+		case Undefined:
+			return shared || pool != null ? AmfUndefined.UNDEFINED : new AmfUndefined();
+
+		case Null:
+			return shared || pool != null ? AmfNull.NULL : new AmfNull();
+
+		case True:
+			return shared || pool != null ? AmfBoolean.TRUE : new AmfBoolean(true);
+
+		case False:
+			return shared || pool != null ? AmfBoolean.FALSE : new AmfBoolean(false);
+
+		case Integer:
+			if(pool != null) {
+				return pool.takeInteger(readS29());
+			}
+			return shared ? AmfInteger.valueOf(readS29()) : new AmfInteger(readS29());
+
+		case Double:
+			if(pool != null) {
+				return pool.takeDouble(readDouble());
+			}
+			return new AmfDouble(readDouble());
+
+		case String:
+			if(pool != null) {
+				return readPooledString();
+			}
+			if(shared) {
+				return getStringValue(readStringIndex());
+			}
+			return new AmfString(readString());
+
+		case Date:
+			return readDate();
+
+		case ByteArray:
+			return readByteArray();
+
+		case Array:
+			return readArray();
+
+		case Object:
+			return readObject();
+
+		case Dictionary:
+			return readDictionary();
+
+		case VectorInt:
+			return readVectorInt();
+
+		case VectorUInt:
+			return readVectorUInt();
+
+		case VectorDouble:
+			return readVectorDouble();
+
+		case VectorGeneric:
+			return readVectorGeneric();
+
+		case XmlDoc:
+			return _readXml(true);
+
+		case Xml:
+			return _readXml(false);
+		}
+
+		throw new UnexpectedDataException(String.format("Unknown Value Type: 0x%x", typeId));
+	}
+
+	/**
+	 * Reads the externalizable data of the object on top of the stack, if
+	 * any, and pops it.
+	 */
+	private AmfObject endObject() throws IOException {
+		SimpleTrait trait = frameTrait[depth - 1];
+		if(trait.isExternalizable()) {
+			((AmfObject) frameValue[depth - 1]).setExternalizableObject(readExternalizable(trait.getName()));
+		}
+		return (AmfObject) pop();
+	}
+
+	/**
+	 * Starts reading a dictionary key. Keys are never shared or pooled, as
+	 * the same instance would be the same key, and a recycled key would
+	 * change while in the map.
+	 */
+	private void startKey() {
+		if(keyDepth++ == 0) {
+			keyShared = shared;
+			keyPool = pool;
+			shared = false;
+			pool = null;
+		}
+	}
+
+	private void endKey() {
+		if(--keyDepth == 0) {
+			shared = keyShared;
+			pool = keyPool;
+			keyPool = null;
+		}
+	}
+
+	private AmfValue pop() {
+		--depth;
+		--nesting;
+		AmfValue value = frameValue[depth];
+		frameValue[depth] = null;
+		frameTrait[depth] = null;
+		frameKey[depth] = null;
+		return value;
+	}
+
+	/**
+	 * Pushes a frame for a container whose members are read next.
+	 */
+	private void push(int kind, AmfValue value, int count, SimpleTrait trait) throws UnexpectedDataException {
+		enter();
+		if(depth == frameKind.length) {
+			int length = depth << 1;
+			frameCount = Arrays.copyOf(frameCount, length);
+			frameIndex = Arrays.copyOf(frameIndex, length);
+			frameKey = Arrays.copyOf(frameKey, length);
+			frameKind = Arrays.copyOf(frameKind, length);
+			frameTrait = Arrays.copyOf(frameTrait, length);
+			frameValue = Arrays.copyOf(frameValue, length);
+		}
+		frameKind[depth] = kind;
+		frameValue[depth] = value;
+		frameCount[depth] = count;
+		frameIndex[depth] = 0;
+		frameKey[depth] = null;
+		frameTrait[depth] = trait;
+		++depth;
+	}
+
+	/**
+	 * Drops the frames above the given depth after a failed read, and puts
+	 * back the settings changed for dictionary keys.
+	 */
+	private void unwind(int base, int keys) {
+		while(depth > base) {
+			pop();
+		}
+		if(keyDepth > keys) {
+			keyDepth = keys + 1;
+			endKey();
+		}
+	}
+
+	private AmfVector.Double readVectorDouble() throws IOException, UnexpectedDataException {
+		int h = readU29();
+		if((h & 1) == 0) {
+			return getReference(h >>> 1, AmfVector.Double.class);
+		}
+		// Stored by value
+		AmfValue decoded = getDecoded();
+		if(decoded != null) {
+			return (AmfVector.Double) decoded;
+		}
+		int count = h >>> 1;
+		checkElements(count);
+		addBytes((long) count << 3);
+		boolean fixedLength = readBoolean();
+		AmfVector.Double result;
+		if(pool != null) {
+			require(count, 3);
+			result = pool.takeVectorDouble();
+			readDoubles(result.prepare(count), count);
+		} else {
+			result = AmfVector.Double.wrap(readDoubles(count), count);
+		}
+		result.setFixedLength(fixedLength);
+		result.setCapacity(count);
+		register(result);
+		return result;
+	}
+
+	/**
+	 * Reads the header of a generic vector. Unless it is stored by reference
+	 * a frame is pushed for its elements and null is returned.
+	 */
+	private AmfVector.Generic readVectorGeneric() throws IOException, UnexpectedDataException {
+		int h = readU29();
+		if((h & 1) == 0) {
+			return getReference(h >>> 1, AmfVector.Generic.class);
+		}
+		// Stored by value
+		AmfValue decoded = getDecoded();
+		if(decoded != null) {
+			return (AmfVector.Generic) decoded;
+		}
+		int count = h >>> 1;
+		checkElements(count);
+		boolean fixedLength = readBoolean();
+		String type = readString();
+		AmfVector.Generic result = new AmfVector.Generic(type);
+		result.setFixedLength(fixedLength);
+		result.setCapacity(count);
+		register(result);
+		push(FRAME_VECTOR_GENERIC, result, count, null);
+		return null;
+	}
+
+	private AmfVector.Integer readVectorInt() throws IOException, UnexpectedDataException {
+		int h = readU29();
+		if((h & 1) == 0) {
+			return getReference(h >>> 1, AmfVector.Integer.class);
+		}
+		// Stored by value
+		AmfValue decoded = getDecoded();
+		if(decoded != null) {
+			return (AmfVector.Integer) decoded;
+		}
+		int count = h >>> 1;
+		checkElements(count);
+		addBytes((long) count << 2);
+		boolean fixedLength = readBoolean();
+		AmfVector.Integer result;
+		if(pool != null) {
+			require(count, 2);
+			result = pool.takeVectorInt();
+			readInts(result.prepare(count), count);
+		} else {
+			result = AmfVector.Integer.wrap(readInts(count), count);
+		}
+		result.setFixedLength(fixedLength);
+		result.setCapacity(count);
+		register(result);
+		return result;
+	}
+
+	private AmfVector.UnsignedInteger readVectorUInt() throws IOException, UnexpectedDataException {
+		int h = readU29();
+		if((h & 1) == 0) {
+			return getReference(h >>> 1, AmfVector.UnsignedInteger.class);
+		}
+		// Stored by value
+		AmfValue decoded = getDecoded();
+		if(decoded != null) {
+			return (AmfVector.UnsignedInteger) decoded;
+		}
+		int count = h >>> 1;
+		checkElements(count);
+		addBytes((long) count << 2);
+		boolean fixedLength = readBoolean();
+		AmfVector.UnsignedInteger result;
+		if(pool != null) {
+			require(count, 2);
+			result = pool.takeVectorUInt();
+			readInts(result.prepare(count), count);
+		} else {
+			result = AmfVector.UnsignedInteger.wrap(readInts(count), count);
+		}
+		result.setFixedLength(fixedLength);
+		result.setCapacity(count);
+		register(result);
+		return result;
+	}
+}
@@ -22,17 +22,19 @@
 package org.csdgn.amf3;
 
 /**
- * Associated with the AMF double type. This class simply stores a Java Double
+ * Associated with the AMF double type. This class simply stores a Java double
  * internally.
  * 
  * @author Robert Maupin
  */
 public class AmfDouble extends AmfPrimitive<Double> {
+	private double value;
+
 	/**
 	 * Defines an AmfInteger with a value of 0.0.
 	 */
 	public AmfDouble() {
-		super(0.0);
+		value = 0.0;
 	}
 
 	/**
@@ -42,19 +44,66 @@ public class AmfDouble extends AmfPrimitive<Double> {
 	 *            The double value.
 	 */
 	public AmfDouble(double value) {
-		super(value);
+		this.value = value;
+	}
+
+	/**
+	 * Gets the value of this double without boxing it.
+	 * 
+	 * @return The double value.
+	 */
+	public double doubleValue() {
+		return value;
+	}
+
+	/**
+	 * Compares the values as {@link Double#equals(Object)} does, so NaN equals
+	 * NaN but 0.0 does not equal -0.0.
+	 */
+	@Override
+	public boolean equals(AmfValue val) {
+		if(val instanceof AmfDouble && val.getType() == getType()) {
+			return Double.doubleToLongBits(value) == Double.doubleToLongBits(((AmfDouble) val).value);
+		}
+		return false;
 	}
 
 	@Override
 	public AmfType getType() {
 		return AmfType.Double;
 	}
+
+	@Override
+	public Double getValue() {
+		return value;
+	}
+
+	@Override
+	public int hashCode() {
+		return Double.hashCode(value);
+	}
+
+	/**
+	 * Sets the value of this double.
+	 * 
+	 * @param value
+	 *            The double value.
+	 */
+	public void setValue(double value) {
+		this.value = value;
+	}
+
+	@Override
+	public void setValue(Double value) {
+		checkValue(value);
+		this.value = value;
+	}
 	
 	@Override
 	public String toString() {
 		StringBuilder buf = new StringBuilder();
 		buf.append("Double[");
-		buf.append(getValue());
+		buf.append(value);
 		buf.append("]");
 		return buf.toString();
 	}
@@ -0,0 +1,144 @@
+/**
+ * Copyright (c) 2017 Robert Maupin
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.csdgn.amf3;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * A list of AmfDouble backed by a double array. Elements are boxed into a new
+ * AmfDouble each time they are read, and only their values are stored when
+ * written, so changes to an AmfDouble taken from the list are not seen by the
+ * list.
+ * 
+ * @author Robert Maupin
+ * @see AmfVector.Double
+ */
+class AmfDoubleList extends AbstractList<AmfDouble> implements RandomAccess {
+	double[] data;
+	int size;
+
+	AmfDoubleList() {
+		data = new double[8];
+	}
+
+	/**
+	 * Creates a list that takes ownership of the given array.
+	 */
+	AmfDoubleList(double[] data, int size) {
+		this.data = data;
+		this.size = size;
+	}
+
+	@Override
+	public void add(int index, AmfDouble element) {
+		if(index < 0 || index > size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+		insert(index, element.doubleValue());
+	}
+
+	void addDouble(double value) {
+		if(size == data.length) {
+			data = Arrays.copyOf(data, Math.max(8, size << 1));
+		}
+		data[size++] = value;
+		++modCount;
+	}
+
+	@Override
+	public void clear() {
+		size = 0;
+		++modCount;
+	}
+
+	/**
+	 * Makes room for the given number of elements in total.
+	 */
+	void ensureCapacity(int capacity) {
+		if(capacity > data.length) {
+			data = Arrays.copyOf(data, Math.max(capacity, data.length << 1));
+		}
+	}
+
+	@Override
+	public AmfDouble get(int index) {
+		return new AmfDouble(getDouble(index));
+	}
+
+	double getDouble(int index) {
+		if(index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+		return data[index];
+	}
+
+	private void insert(int index, double value) {
+		if(size == data.length) {
+			data = Arrays.copyOf(data, Math.max(8, size << 1));
+		}
+		System.arraycopy(data, index, data, index + 1, size - index);
+		data[index] = value;
+		++size;
+		++modCount;
+	}
+
+	@Override
+	public AmfDouble remove(int index) {
+		AmfDouble old = get(index);
+		System.arraycopy(data, index + 1, data, index, size - index - 1);
+		--size;
+		++modCount;
+		return old;
+	}
+
+	@Override
+	protected void removeRange(int fromIndex, int toIndex) {
+		System.arraycopy(data, toIndex, data, fromIndex, size - toIndex);
+		size -= toIndex - fromIndex;
+		++modCount;
+	}
+
+	@Override
+	public AmfDouble set(int index, AmfDouble element) {
+		AmfDouble old = get(index);
+		data[index] = element.doubleValue();
+		return old;
+	}
+
+	void setDouble(int index, double value) {
+		if(index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+		data[index] = value;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	double[] toDoubleArray() {
+		return Arrays.copyOf(data, size);
+	}
+}
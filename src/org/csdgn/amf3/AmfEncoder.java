@@ -0,0 +1,1260 @@
+/**
+ * Copyright (c) 2017 Robert Maupin
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.csdgn.amf3;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ReadOnlyBufferException;
+import java.nio.channels.Channels;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * <p>
+ * Encodes AmfValues and SOL files into an internal byte buffer. An encoder is
+ * a reusable session, the buffer and the string, trait and reference tables
+ * are kept between calls and only cleared, so encoding many messages with
+ * one encoder does not allocate a new pipeline for each.
+ * </p>
+ * 
+ * <p>
+ * The buffer is a {@link ByteBuffer} from an {@link AmfBufferAllocator},
+ * heap buffers by default. With direct buffers the result of
+ * {@link #encodeView(AmfValue)} can be written to a channel without being
+ * copied, and {@link #encode(AmfValue, ByteBuffer)} writes into a buffer the
+ * caller provides.
+ * </p>
+ * 
+ * <p>
+ * Encoders are not thread safe. {@link #acquire(ExternalizableFactory...)}
+ * gives out an encoder kept for the calling thread, which is what the static
+ * methods of {@link AmfIO} use.
+ * </p>
+ * 
+ * @author Robert Maupin
+ */
+public class AmfEncoder {
+	private static final ThreadLocal<AmfEncoder> local = new ThreadLocal<AmfEncoder>();
+	private static final int INITIAL_CAPACITY = 256;
+	// buffers larger than this are not kept by the thread local encoder
+	private static final int MAX_KEPT_CAPACITY = 1 << 20;
+	// strings up to this length are written a character at a time, longer
+	// ones are faster through String.getBytes
+	private static final int MAX_SHORT_STRING = 32;
+
+	// the kinds of frame on the stack of containers being written
+	private static final int FRAME_ARRAY_ASSOCIATIVE = 0;
+	private static final int FRAME_DICTIONARY = 1;
+	private static final int FRAME_LIST = 2;
+	private static final int FRAME_OBJECT_DYNAMIC = 3;
+	private static final int FRAME_OBJECT_SEALED = 4;
+	private static final int FRAME_OBJECT_SLOTS = 5;
+
+	/**
+	 * Gets the encoder kept for the calling thread, with the given
+	 * ExternalizableFactorys registered. If that encoder is already in use, a
+	 * new encoder is returned instead. The encoder must be given back with
+	 * {@link #release()} when done, and must not be used after that.
+	 * 
+	 * @param ext
+	 *            The ExternalizableFactorys to use, if any.
+	 * @return an encoder for the calling thread.
+	 */
+	public static AmfEncoder acquire(ExternalizableFactory... ext) {
+		AmfEncoder encoder = local.get();
+		if(encoder == null || encoder.acquired) {
+			encoder = new AmfEncoder();
+			if(local.get() == null) {
+				local.set(encoder);
+			}
+		}
+		encoder.acquired = true;
+		for(ExternalizableFactory factory : ext) {
+			encoder.addExternalizableFactory(factory);
+		}
+		return encoder;
+	}
+
+	private boolean acquired;
+	private AmfBufferAllocator allocator;
+	// the buffer is big-endian and only written with absolute indexes, it is
+	// given back to the allocator when grown out of unless it is borrowed,
+	// see encode(AmfValue, ByteBuffer)
+	private ByteBuffer buf;
+	private boolean borrowed;
+	// the channel encodeFile writes to and the number of bytes written to it,
+	// large byte arrays are written straight to it, see writeByteArray
+	private WritableByteChannel channel;
+	private long written;
+	private int count;
+	private DataOutput dataOutput;
+	private List<ExternalizableFactory> factories;
+	// values are tracked by identity, as ActionScript does, which also lets
+	// cyclic graphs be written
+	private Map<AmfValue, Integer> referenceTable;
+	private AmfSizer sizer;
+	private Map<String, Integer> stringTable;
+	private Map<Trait, Integer> traitTable;
+
+	// the stack of containers being written, see writeValue, each with the
+	// iterator over its members, or the slots of an object
+	private int depth;
+	private int[] frameIndex;
+	private Object[] frameIterator;
+	private int[] frameKind;
+	private AmfValue[] frameValue;
+
+	/**
+	 * Creates a new encoder with the given ExternalizableFactorys.
+	 * 
+	 * @param ext
+	 *            The ExternalizableFactorys to use, if any.
+	 */
+	public AmfEncoder(ExternalizableFactory... ext) {
+		allocator = AmfBufferAllocator.HEAP;
+		buf = allocate(INITIAL_CAPACITY);
+		factories = new ArrayList<ExternalizableFactory>();
+		referenceTable = new IdentityHashMap<AmfValue, Integer>();
+		stringTable = new HashMap<String, Integer>();
+		traitTable = new HashMap<Trait, Integer>();
+		frameIndex = new int[8];
+		frameIterator = new Object[8];
+		frameKind = new int[8];
+		frameValue = new AmfValue[8];
+		for(ExternalizableFactory factory : ext) {
+			addExternalizableFactory(factory);
+		}
+	}
+
+	/**
+	 * Associates the specified ExternalizableFactory with this encoder.
+	 * 
+	 * @param factory
+	 *            the ExternalizableFactory to add
+	 */
+	public void addExternalizableFactory(ExternalizableFactory factory) {
+		if(Objects.isNull(factory)) {
+			throw new IllegalArgumentException("The factory provided cannot be null.");
+		}
+		factories.add(factory);
+	}
+
+	/**
+	 * Encodes the given value.
+	 * 
+	 * @param value
+	 *            the value to encode.
+	 * @return the encoded value.
+	 * @throws IOException
+	 *             if an externalizable encountered an I/O error.
+	 */
+	public byte[] encode(AmfValue value) throws IOException {
+		reset();
+		try {
+			writeValue(value);
+		} finally {
+			clearTables();
+		}
+		return toByteArray();
+	}
+
+	/**
+	 * Encodes the given value into the given buffer, starting at its
+	 * position. If the buffer runs out of room before its limit, which may
+	 * happen a few bytes before the end of the value, its contents up to the
+	 * write position are moved to a larger buffer from the allocator and the
+	 * value is finished there, see {@link #setAllocator(AmfBufferAllocator)}.
+	 * The given buffer is never given to the allocator.
+	 * 
+	 * @param value
+	 *            the value to encode.
+	 * @param buffer
+	 *            the buffer to write to.
+	 * @return the buffer the value was written to, which is the given buffer
+	 *         unless it ran out of room, with its position just after the
+	 *         value.
+	 * @throws IOException
+	 *             if an externalizable encountered an I/O error.
+	 */
+	public ByteBuffer encode(AmfValue value, ByteBuffer buffer) throws IOException {
+		if(Objects.isNull(buffer)) {
+			throw new IllegalArgumentException("The buffer provided cannot be null.");
+		}
+		if(buffer.isReadOnly()) {
+			throw new ReadOnlyBufferException();
+		}
+		ByteBuffer own = buf;
+		ByteBuffer result = null;
+		buf = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+		borrowed = true;
+		count = buffer.position();
+		try {
+			writeValue(value);
+			result = borrowed ? buffer : buf;
+			result.position(count);
+			return result;
+		} finally {
+			clearTables();
+			if(result == null && !borrowed) {
+				allocator.release(buf);
+			}
+			buf = own;
+			borrowed = false;
+			count = 0;
+		}
+	}
+
+	/**
+	 * Encodes the given value to the given output stream. The stream is not
+	 * flushed or closed.
+	 * 
+	 * @param value
+	 *            the value to encode.
+	 * @param output
+	 *            the stream to write to.
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	public void encode(AmfValue value, OutputStream output) throws IOException {
+		reset();
+		try {
+			writeValue(value);
+		} finally {
+			clearTables();
+		}
+		writeTo(output);
+	}
+
+	/**
+	 * Encodes the given SOL file.
+	 * 
+	 * @param file
+	 *            the file to encode.
+	 * @return the encoded file.
+	 * @throws IOException
+	 *             if an externalizable encountered an I/O error.
+	 */
+	public byte[] encodeFile(AmfFile file) throws IOException {
+		writeFile(file);
+		return toByteArray();
+	}
+
+	/**
+	 * Encodes the given SOL file to the given output stream. Like
+	 * {@link #encodeFile(AmfFile, WritableByteChannel)} each entry is written
+	 * as soon as it is encoded, and the size in the header is found first with
+	 * an {@link AmfSizer}. The stream is not flushed or closed.
+	 * 
+	 * @param file
+	 *            the file to encode.
+	 * @param output
+	 *            the stream to write to.
+	 * @throws IOException
+	 *             if an I/O error occurs, or the file is too large for the
+	 *             size in its header.
+	 */
+	public void encodeFile(AmfFile file, OutputStream output) throws IOException {
+		if(Objects.isNull(output)) {
+			throw new IllegalArgumentException("The output provided cannot be null.");
+		}
+		// never seeks, so a stream in append mode is fine
+		writeFileSized(file, Channels.newChannel(output));
+	}
+
+	/**
+	 * Encodes the given SOL file to the given channel, starting at its current
+	 * position. Each entry is written to the channel as soon as it is
+	 * encoded, so the encoder holds the largest entry rather than the whole
+	 * file. Large byte arrays are not copied into the encoder at all, but
+	 * written straight from their chunks, with gathering writes if the
+	 * channel supports them. If the channel is a {@link SeekableByteChannel},
+	 * such as a {@link java.nio.channels.FileChannel}, the size in the header
+	 * is written last, at its place in the file. Otherwise the size is found
+	 * first with an {@link AmfSizer}, which also calls any Externalizables to
+	 * measure them. The channel is not closed.
+	 * 
+	 * @param file
+	 *            the file to encode.
+	 * @param channel
+	 *            the channel to write to.
+	 * @throws IOException
+	 *             if an I/O error occurs, or the file is too large for the
+	 *             size in its header.
+	 */
+	public void encodeFile(AmfFile file, WritableByteChannel channel) throws IOException {
+		if(Objects.isNull(channel)) {
+			throw new IllegalArgumentException("The channel provided cannot be null.");
+		}
+		if(channel instanceof SeekableByteChannel) {
+			SeekableByteChannel seekable = (SeekableByteChannel) channel;
+			long start = seekable.position();
+			int size = getFileSize(writeFile(file, channel, 0));
+			long end = seekable.position();
+			seekable.position(start + 2);
+			ByteBuffer header = ByteBuffer.allocate(4).putInt(size);
+			header.flip();
+			while(header.hasRemaining()) {
+				channel.write(header);
+			}
+			seekable.position(end);
+			return;
+		}
+		writeFileSized(file, channel);
+	}
+
+	/**
+	 * Encodes the given value, and returns a read-only view of it in the
+	 * buffer of this encoder rather than a copy. The view is only valid
+	 * until this encoder is next used or reset.
+	 * 
+	 * @param value
+	 *            the value to encode.
+	 * @return a read-only buffer holding the encoded value from its
+	 *         position to its limit.
+	 * @throws IOException
+	 *             if an externalizable encountered an I/O error.
+	 */
+	public ByteBuffer encodeView(AmfValue value) throws IOException {
+		reset();
+		try {
+			writeValue(value);
+		} finally {
+			clearTables();
+		}
+		ByteBuffer view = buf.asReadOnlyBuffer();
+		view.position(0);
+		view.limit(count);
+		return view;
+	}
+
+	/**
+	 * Gives this encoder back after {@link #acquire(ExternalizableFactory...)}.
+	 * The encoder is reset and its ExternalizableFactorys are removed.
+	 */
+	public void release() {
+		reset();
+		factories.clear();
+		setAllocator(null);
+		if(buf.capacity() > MAX_KEPT_CAPACITY) {
+			allocator.release(buf);
+			buf = allocate(INITIAL_CAPACITY);
+		}
+		acquired = false;
+	}
+
+	/**
+	 * Clears the output and the string, trait and reference tables, keeping
+	 * their backing arrays.
+	 */
+	public void reset() {
+		count = 0;
+		clearTables();
+	}
+
+	/**
+	 * Sets the allocator the buffer of this encoder comes from, or null for
+	 * {@link AmfBufferAllocator#HEAP}. The current buffer is given back to
+	 * the previous allocator.
+	 * 
+	 * @param allocator
+	 *            the allocator to use.
+	 */
+	public void setAllocator(AmfBufferAllocator allocator) {
+		if(allocator == null) {
+			allocator = AmfBufferAllocator.HEAP;
+		}
+		if(allocator != this.allocator) {
+			this.allocator.release(buf);
+			this.allocator = allocator;
+			buf = allocate(INITIAL_CAPACITY);
+			count = 0;
+		}
+	}
+
+	/**
+	 * Gets a buffer from the allocator, ready to be written with absolute
+	 * indexes.
+	 */
+	private ByteBuffer allocate(int capacity) {
+		ByteBuffer buffer = allocator.allocate(capacity);
+		buffer.clear();
+		return buffer.order(ByteOrder.BIG_ENDIAN);
+	}
+
+	private void clearTables() {
+		referenceTable.clear();
+		stringTable.clear();
+		traitTable.clear();
+		while(depth > 0) {
+			pop();
+		}
+	}
+
+	private void ensure(int length) {
+		if(count + length > buf.limit()) {
+			grow(count + length);
+		}
+	}
+
+	/**
+	 * Writes the buffer to the channel of encodeFile and empties it.
+	 */
+	private void flush() throws IOException {
+		ByteBuffer src = buf.duplicate();
+		src.position(0);
+		src.limit(count);
+		while(src.hasRemaining()) {
+			channel.write(src);
+		}
+		written += count;
+		count = 0;
+	}
+
+	/**
+	 * Gets the size stored in the header of a SOL file of the given length.
+	 */
+	private int getFileSize(long length) throws IOException {
+		long size = length - 6;
+		if(size > 0xFFFFFFFFL) {
+			throw new IOException("The file is too large for the SOL format");
+		}
+		return (int) size;
+	}
+
+	/**
+	 * Gets the number of bytes {@link #writeU29(int)} writes for the given
+	 * value.
+	 */
+	static int getU29Size(int value) {
+		if(value < 0x80) {
+			return 1;
+		} else if(value < 0x4000) {
+			return 2;
+		} else if(value < 0x200000) {
+			return 3;
+		}
+		return 4;
+	}
+
+	/**
+	 * Moves the contents of the buffer to a larger one from the allocator.
+	 */
+	private void grow(int capacity) {
+		if(capacity < 0) {
+			throw new OutOfMemoryError("The encoded value is too large");
+		}
+		ByteBuffer larger = allocate(Math.max(buf.limit() << 1, capacity));
+		ByteBuffer src = buf.duplicate();
+		src.position(0);
+		src.limit(count);
+		larger.put(src);
+		larger.clear();
+		if(!borrowed) {
+			allocator.release(buf);
+		}
+		buf = larger;
+		borrowed = false;
+	}
+
+	private void pop() {
+		--depth;
+		frameIterator[depth] = null;
+		frameValue[depth] = null;
+	}
+
+	/**
+	 * Pushes a frame for a container whose members are written next.
+	 */
+	private void push(int kind, AmfValue value, Object iterator) {
+		if(depth == frameKind.length) {
+			int length = depth << 1;
+			frameIndex = Arrays.copyOf(frameIndex, length);
+			frameIterator = Arrays.copyOf(frameIterator, length);
+			frameKind = Arrays.copyOf(frameKind, length);
+			frameValue = Arrays.copyOf(frameValue, length);
+		}
+		frameKind[depth] = kind;
+		frameValue[depth] = value;
+		frameIterator[depth] = iterator;
+		frameIndex[depth] = 0;
+		++depth;
+	}
+
+	/**
+	 * Copies the buffer up to the current count into a new array.
+	 */
+	private byte[] toByteArray() {
+		byte[] data = new byte[count];
+		ByteBuffer src = buf.duplicate();
+		src.position(0);
+		src.get(data);
+		return data;
+	}
+
+	private void write(byte[] data, int offset, int length) {
+		ensure(length);
+		buf.position(count);
+		buf.put(data, offset, length);
+		count += length;
+	}
+
+	/**
+	 * Writes the remaining bytes of the given buffer.
+	 */
+	private void write(ByteBuffer data) {
+		int length = data.remaining();
+		ensure(length);
+		buf.position(count);
+		buf.put(data);
+		count += length;
+	}
+
+	private void writeArray(AmfArray arr) throws IOException {
+		if(!writeRef(arr)) {
+			writeU29Flag(arr.getDenseSize(), true);
+			// the associative data (key-value pairs) and then the dense data
+			// (list line 0 to count) are written by writeNext
+			push(FRAME_ARRAY_ASSOCIATIVE, arr, arr.getAssociative().entrySet().iterator());
+		}
+	}
+
+	private void writeByte(int value) {
+		ensure(1);
+		buf.put(count++, (byte) value);
+	}
+
+	private void writeByteArray(AmfByteArray arr) throws IOException {
+		if(!writeRef(arr)) {
+			int size = arr.size();
+			writeU29Flag(size, true);
+			byte[] data = arr.getArray();
+			if(channel != null && size >= AmfByteArray.CHUNK_SIZE) {
+				writeGathered(arr.getBuffers());
+			} else if(data != null) {
+				write(data, 0, size);
+			} else {
+				// a view or chunks, copied a buffer at a time
+				ensure(size);
+				for(ByteBuffer chunk : arr.getBuffers()) {
+					write(chunk);
+				}
+			}
+		}
+	}
+
+	private void writeDate(AmfDate date) throws IOException {
+		if(!writeRef(date)) {
+			writeU29Flag(0, true);
+			writeDouble(date.doubleValue());
+		}
+	}
+
+	private void writeDictionary(AmfDictionary dict) throws IOException {
+		if(!writeRef(dict)) {
+			writeU29Flag(dict.size(), true);
+			writeByte(dict.hasWeakKeys() ? 1 : 0);
+			push(FRAME_DICTIONARY, dict, dict.getMap().entrySet().iterator());
+		}
+	}
+
+	private void writeDouble(double value) {
+		writeLong(Double.doubleToLongBits(value));
+	}
+
+	/**
+	 * Writes a SOL file into the buffer.
+	 */
+	private void writeFile(AmfFile file) throws IOException {
+		reset();
+		try {
+			// file size placeholder, 4 bytes @ index 2
+			writeFileHeader(file, 0);
+
+			for(Map.Entry<String, AmfValue> e : file.entrySet()) {
+				writeString(e.getKey());
+				writeValue(e.getValue());
+				// trailing zero
+				writeByte(0);
+			}
+		} finally {
+			clearTables();
+		}
+
+		// update header length
+		buf.putInt(2, count - 6);
+	}
+
+	/**
+	 * Writes a SOL file with the given size in its header to the given
+	 * channel, flushing the buffer after the header and after each entry.
+	 * The string, trait and reference tables are kept for the whole file,
+	 * but the buffer only ever holds a single entry.
+	 * 
+	 * @return the number of bytes in the file.
+	 */
+	private long writeFile(AmfFile file, WritableByteChannel channel, int size) throws IOException {
+		reset();
+		this.channel = channel;
+		written = 0;
+		try {
+			writeFileHeader(file, size);
+			flush();
+
+			for(Map.Entry<String, AmfValue> e : file.entrySet()) {
+				writeString(e.getKey());
+				writeValue(e.getValue());
+				// trailing zero
+				writeByte(0);
+				flush();
+			}
+		} finally {
+			this.channel = null;
+			reset();
+		}
+		return written;
+	}
+
+	private void writeFileHeader(AmfFile file, int size) {
+		// write BOM
+		writeByte(0);
+		writeByte(0xBF);
+
+		// file size, does not include the BOM or the size itself
+		writeInt(size);
+
+		// write magic header
+		writeByte('T');
+		writeByte('C');
+		writeByte('S');
+		writeByte('O');
+
+		// not sure what these values are actually
+		write(new byte[] { 0, 4, 0, 0, 0, 0 }, 0, 6);
+
+		// write name
+		byte[] nameBytes = file.getName().getBytes(StandardCharsets.US_ASCII);
+		writeShort(nameBytes.length);
+		write(nameBytes, 0, nameBytes.length);
+
+		// write version
+		writeInt(3);
+	}
+
+	/**
+	 * Writes the file to the given channel in order, with the size in its
+	 * header found first with the sizer.
+	 */
+	private void writeFileSized(AmfFile file, WritableByteChannel channel) throws IOException {
+		if(sizer == null) {
+			sizer = new AmfSizer();
+		}
+		int size = getFileSize(sizer.sizeOf(file));
+		if(getFileSize(writeFile(file, channel, size)) != size) {
+			throw new IOException("The file changed while it was being written");
+		}
+	}
+
+	/**
+	 * Writes the buffer and then the given buffers to the channel of
+	 * encodeFile, with a single gathering write if the channel can, so the
+	 * buffers are not copied into the buffer of this encoder.
+	 */
+	private void writeGathered(ByteBuffer[] chunks) throws IOException {
+		ByteBuffer[] srcs = new ByteBuffer[chunks.length + 1];
+		srcs[0] = buf.duplicate();
+		srcs[0].position(0);
+		srcs[0].limit(count);
+		System.arraycopy(chunks, 0, srcs, 1, chunks.length);
+		long length = 0;
+		for(ByteBuffer src : srcs) {
+			length += src.remaining();
+		}
+		if(channel instanceof GatheringByteChannel) {
+			GatheringByteChannel gathering = (GatheringByteChannel) channel;
+			for(long left = length; left > 0;) {
+				left -= gathering.write(srcs);
+			}
+		} else {
+			for(ByteBuffer src : srcs) {
+				while(src.hasRemaining()) {
+					channel.write(src);
+				}
+			}
+		}
+		written += length;
+		count = 0;
+	}
+
+	private void writeI29(int value) {
+		final int upperExclusiveBound = 1 << 29;
+		if(value < 0) {
+			// -x is stored as 2^29 - x
+			writeU29(value + upperExclusiveBound);
+		} else {
+			writeU29(value);
+		}
+	}
+
+	private void writeInt(int value) {
+		ensure(4);
+		buf.putInt(count, value);
+		count += 4;
+	}
+
+	private void writeLong(long value) {
+		ensure(8);
+		buf.putLong(count, value);
+		count += 8;
+	}
+
+	/**
+	 * Writes the next member of the container on top of the stack, or ends
+	 * the container if there are no more.
+	 */
+	private void writeNext() throws IOException {
+		int d = depth - 1;
+		switch(frameKind[d]) {
+		case FRAME_ARRAY_ASSOCIATIVE: {
+			Iterator<?> it = (Iterator<?>) frameIterator[d];
+			if(it.hasNext()) {
+				Map.Entry<?, ?> e = (Map.Entry<?, ?>) it.next();
+				writeString((String) e.getKey());
+				writeStart((AmfValue) e.getValue());
+				return;
+			}
+			writeString("");
+			frameKind[d] = FRAME_LIST;
+			frameIterator[d] = ((AmfArray) frameValue[d]).getDense().iterator();
+			return;
+		}
+
+		case FRAME_DICTIONARY: {
+			if(frameIndex[d] != 0) {
+				// the key has been written, the value of the entry is held in
+				// place of the dictionary, which is not needed any more
+				frameIndex[d] = 0;
+				writeStart(frameValue[d]);
+				return;
+			}
+			Iterator<?> it = (Iterator<?>) frameIterator[d];
+			if(it.hasNext()) {
+				Map.Entry<?, ?> e = (Map.Entry<?, ?>) it.next();
+				frameIndex[d] = 1;
+				frameValue[d] = (AmfValue) e.getValue();
+				writeStart((AmfValue) e.getKey());
+				return;
+			}
+			pop();
+			return;
+		}
+
+		case FRAME_OBJECT_DYNAMIC: {
+			Iterator<?> it = (Iterator<?>) frameIterator[d];
+			if(it.hasNext()) {
+				Map.Entry<?, ?> e = (Map.Entry<?, ?>) it.next();
+				writeString((String) e.getKey());
+				writeStart((AmfValue) e.getValue());
+				return;
+			}
+			writeString("");
+			writeObjectEnd();
+			return;
+		}
+
+		case FRAME_OBJECT_SEALED: {
+			// write runs of plain members here rather than through writeValue
+			Iterator<?> it = (Iterator<?>) frameIterator[d];
+			while(it.hasNext()) {
+				writeStart((AmfValue) it.next());
+				if(depth != d + 1) {
+					return;
+				}
+			}
+			writeObjectDynamic();
+			return;
+		}
+
+		case FRAME_OBJECT_SLOTS: {
+			AmfValue[] slots = (AmfValue[]) frameIterator[d];
+			while(frameIndex[d] < slots.length) {
+				writeStart(slots[frameIndex[d]++]);
+				if(depth != d + 1) {
+					return;
+				}
+			}
+			writeObjectDynamic();
+			return;
+		}
+
+		default: {
+			// dense array members and generic vector elements
+			Iterator<?> it = (Iterator<?>) frameIterator[d];
+			while(it.hasNext()) {
+				writeStart((AmfValue) it.next());
+				if(depth != d + 1) {
+					return;
+				}
+			}
+			pop();
+			return;
+		}
+		}
+	}
+
+	private void writeObject(AmfObject obj) throws IOException {
+		if(!writeRef(obj)) {
+			writeTrait(obj.getTrait());
+
+			// the sealed properties are written by writeNext
+			AmfValue[] slots = obj.getSlots();
+			if(slots != null) {
+				push(FRAME_OBJECT_SLOTS, obj, slots);
+			} else {
+				push(FRAME_OBJECT_SEALED, obj, obj.getSealedMap().values().iterator());
+			}
+		}
+	}
+
+	/**
+	 * Writes the dynamic properties of the object on top of the stack after
+	 * its sealed properties, or ends it.
+	 */
+	private void writeObjectDynamic() throws IOException {
+		int d = depth - 1;
+		AmfObject obj = (AmfObject) frameValue[d];
+		if(obj.isDynamic()) {
+			if(obj.getDynamicSize() > 0) {
+				frameKind[d] = FRAME_OBJECT_DYNAMIC;
+				frameIterator[d] = obj.getDynamicMap().entrySet().iterator();
+				return;
+			}
+			writeString("");
+		}
+		writeObjectEnd();
+	}
+
+	/**
+	 * Writes the externalizable properties of the object on top of the stack,
+	 * if any, and pops it.
+	 */
+	private void writeObjectEnd() throws IOException {
+		AmfObject obj = (AmfObject) frameValue[depth - 1];
+		if(obj.isExternalizable()) {
+			Externalizable ext = obj.getExternalizableObject();
+			if(ext != null) {
+				if(dataOutput == null) {
+					dataOutput = new BufferDataOutput();
+				}
+				ext.writeExternal(dataOutput);
+			}
+		}
+		pop();
+	}
+
+	/**
+	 * Writes a string in full. The characters of short strings are written
+	 * straight into the buffer, after room for the header of an ASCII string
+	 * of that length, so short ASCII strings take a single pass. Other short
+	 * strings are measured and written again from the start.
+	 */
+	private void writePlainString(String str) {
+		int length = str.length();
+		if(length > MAX_SHORT_STRING) {
+			byte[] data = str.getBytes(StandardCharsets.UTF_8);
+			writeU29Flag(data.length, true);
+			write(data, 0, data.length);
+			return;
+		}
+		int header = getU29Size((length << 1) | 1);
+		// writeU29 ensures room for four bytes
+		ensure(4 + length);
+		if(AmfUTF8.encodeASCII(str, buf, count + header) == length) {
+			writeU29Flag(length, true);
+			count += length;
+			return;
+		}
+		length = AmfUTF8.length(str);
+		ensure(4 + length);
+		writeU29Flag(length, true);
+		count = AmfUTF8.encode(str, buf, count);
+	}
+
+	/**
+	 * Write new reference or get reference. Most object types are stored by
+	 * reference so that they are only serialized once. After that only their
+	 * reference index is stored.
+	 * 
+	 * @param obj
+	 *            the object to write
+	 * @return true if reference exists, false otherwise.
+	 */
+	private boolean writeRef(AmfValue obj) {
+		Integer index = referenceTable.get(obj);
+		if(index != null) {
+			writeU29Flag(index, false);
+			return true;
+		}
+
+		referenceTable.put(obj, referenceTable.size());
+		return false;
+	}
+
+	private void writeShort(int value) {
+		ensure(2);
+		buf.putShort(count, (short) value);
+		count += 2;
+	}
+
+	/**
+	 * Writes the given value into the buffer, or only the start of it if it
+	 * is a container, in which case a frame is pushed for its members.
+	 * 
+	 * @param value
+	 *            the value to write.
+	 */
+	private void writeStart(AmfValue value) throws IOException {
+		AmfType type = value.getType();
+		writeByte(type.id);
+		switch(type) {
+		case Array:
+			writeArray((AmfArray) value);
+			break;
+		case ByteArray:
+			writeByteArray((AmfByteArray) value);
+			break;
+		case Date:
+			writeDate((AmfDate) value);
+			break;
+		case Dictionary:
+			writeDictionary((AmfDictionary) value);
+			break;
+		case Double:
+			writeDouble(((AmfDouble) value).doubleValue());
+			break;
+		case Integer:
+			writeI29(((AmfInteger) value).intValue());
+			break;
+		case Object:
+			writeObject((AmfObject) value);
+			break;
+		case String:
+			writeString(((AmfString) value).getValue());
+			break;
+		case VectorDouble:
+			writeVector((AmfVector.Double) value);
+			break;
+		case VectorGeneric:
+			writeVector((AmfVector.Generic) value);
+			break;
+		case VectorInt:
+			writeVector((AmfVector.Integer) value);
+			break;
+		case VectorUInt:
+			writeVector((AmfVector.UnsignedInteger) value);
+			break;
+		case Xml:
+		case XmlDoc:
+			writeXml((AmfXml) value);
+			break;
+		default:
+			// null, false, true and undefined have nothing more
+			break;
+		}
+	}
+
+	private void writeString(String str) {
+		Integer index;
+		if(str.length() == 0) {
+			// empty string
+			writeU29Flag(0, true);
+		} else if((index = stringTable.get(str)) != null) {
+			// reference
+			writeU29Flag(index, false);
+		} else {
+			// plain string
+			writePlainString(str);
+			stringTable.put(str, stringTable.size());
+		}
+	}
+
+	/**
+	 * Writes the buffer up to the current count to the given stream.
+	 */
+	private void writeTo(OutputStream output) throws IOException {
+		if(buf.hasArray()) {
+			output.write(buf.array(), buf.arrayOffset(), count);
+		} else {
+			output.write(toByteArray());
+		}
+	}
+
+	private void writeTrait(Trait trait) {
+		Integer ref = traitTable.get(trait);
+		if(ref != null) {
+			writeU29((ref << 2) | 1);
+			return;
+		}
+		traitTable.put(trait, traitTable.size());
+		int index = 3;
+		if(trait.isExternalizable()) {
+			index |= 4;
+		}
+		if(trait.isDynamic()) {
+			index |= 8;
+		}
+		List<String> props = trait.getProperties();
+		index |= (props.size() << 4);
+		writeU29(index);
+
+		writeString(trait.getName());
+		for(String name : props) {
+			writeString(name);
+		}
+	}
+
+	private void writeU29(int value) {
+		int iVal = value & 0x3FFFFFFF;
+		ensure(4);
+		if(value < 0x80) {
+			// 7 bits
+			buf.put(count++, (byte) (iVal & 0x7F));
+		} else if(value < 0x4000) {
+			// 14 bits
+			buf.put(count++, (byte) (0x80 | ((iVal >> 7) & 0x7F)));
+			buf.put(count++, (byte) (iVal & 0x7F));
+		} else if(value < 0x200000) {
+			// 21 bits
+			buf.put(count++, (byte) (0x80 | ((iVal >> 14) & 0x7F)));
+			buf.put(count++, (byte) (0x80 | ((iVal >> 7) & 0x7F)));
+			buf.put(count++, (byte) (iVal & 0x7F));
+		} else {
+			// 29 bits, this one doesn't follow the above pattern
+			buf.put(count++, (byte) (0x80 | ((iVal >> 22) & 0x7F)));
+			buf.put(count++, (byte) (0x80 | ((iVal >> 15) & 0x7F)));
+			buf.put(count++, (byte) (0x80 | ((iVal >> 8) & 0x7F)));
+			buf.put(count++, (byte) (iVal & 0xFF));
+		}
+	}
+
+	private void writeU29Flag(int value, boolean flag) {
+		value <<= 1;
+		if(flag) {
+			value |= 1;
+		}
+		writeU29(value);
+	}
+
+	/**
+	 * Writes the given value into the buffer.
+	 * 
+	 * @param value
+	 *            the value to write.
+	 */
+	private void writeValue(AmfValue value) throws IOException {
+		// containers are written with a stack of frames rather than by
+		// recursion, so values can be nested as deep as memory allows
+		int base = depth;
+		writeStart(value);
+		while(depth > base) {
+			writeNext();
+		}
+	}
+
+	private void writeVector(AmfVector.Double vec) {
+		if(!writeRef(vec)) {
+			writeU29Flag(vec.size(), true);
+			writeByte(vec.isFixedLength() ? 1 : 0);
+			int length = vec.size() << 3;
+			ensure(length);
+			buf.position(count);
+			buf.asDoubleBuffer().put(vec.asDoubleBuffer());
+			count += length;
+		}
+	}
+
+	private void writeVector(AmfVector.Generic vec) throws IOException {
+		if(!writeRef(vec)) {
+			writeU29Flag(vec.size(), true);
+			writeByte(vec.isFixedLength() ? 1 : 0);
+			writeString(vec.getTypeName());
+			push(FRAME_LIST, vec, vec.iterator());
+		}
+	}
+
+	private void writeVector(AmfVector.Integer vec) {
+		if(!writeRef(vec)) {
+			writeU29Flag(vec.size(), true);
+			writeByte(vec.isFixedLength() ? 1 : 0);
+			int length = vec.size() << 2;
+			ensure(length);
+			buf.position(count);
+			buf.asIntBuffer().put(vec.asIntBuffer());
+			count += length;
+		}
+	}
+
+	private void writeVector(AmfVector.UnsignedInteger vec) {
+		if(!writeRef(vec)) {
+			writeU29Flag(vec.size(), true);
+			writeByte(vec.isFixedLength() ? 1 : 0);
+			int length = vec.size() << 2;
+			ensure(length);
+			buf.position(count);
+			buf.asIntBuffer().put(vec.asIntBuffer());
+			count += length;
+		}
+	}
+
+	private void writeXml(AmfXml xml) {
+		if(!writeRef(xml)) {
+			writePlainString(xml.getValue());
+		}
+	}
+
+	/**
+	 * Adapts the encoder buffer to a DataOutput for {@link Externalizable}s.
+	 * 
+	 * @author Robert Maupin
+	 */
+	private class BufferDataOutput implements DataOutput {
+		@Override
+		public void write(byte[] b) {
+			AmfEncoder.this.write(b, 0, b.length);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			AmfEncoder.this.write(b, off, len);
+		}
+
+		@Override
+		public void write(int b) {
+			writeByte(b);
+		}
+
+		@Override
+		public void writeBoolean(boolean v) {
+			AmfEncoder.this.writeByte(v ? 1 : 0);
+		}
+
+		@Override
+		public void writeByte(int v) {
+			AmfEncoder.this.writeByte(v);
+		}
+
+		@Override
+		public void writeBytes(String s) {
+			int length = s.length();
+			ensure(length);
+			for(int i = 0; i < length; ++i) {
+				buf.put(count++, (byte) s.charAt(i));
+			}
+		}
+
+		@Override
+		public void writeChar(int v) {
+			AmfEncoder.this.writeShort(v);
+		}
+
+		@Override
+		public void writeChars(String s) {
+			int length = s.length();
+			for(int i = 0; i < length; ++i) {
+				AmfEncoder.this.writeShort(s.charAt(i));
+			}
+		}
+
+		@Override
+		public void writeDouble(double v) {
+			AmfEncoder.this.writeDouble(v);
+		}
+
+		@Override
+		public void writeFloat(float v) {
+			AmfEncoder.this.writeInt(Float.floatToIntBits(v));
+		}
+
+		@Override
+		public void writeInt(int v) {
+			AmfEncoder.this.writeInt(v);
+		}
+
+		@Override
+		public void writeLong(long v) {
+			AmfEncoder.this.writeLong(v);
+		}
+
+		@Override
+		public void writeShort(int v) {
+			AmfEncoder.this.writeShort(v);
+		}
+
+		@Override
+		public void writeUTF(String s) throws IOException {
+			// modified UTF-8, as DataOutputStream writes it
+			int length = s.length();
+			int utflen = 0;
+			for(int i = 0; i < length; ++i) {
+				char c = s.charAt(i);
+				if(c >= 0x0001 && c <= 0x007F) {
+					utflen += 1;
+				} else if(c > 0x07FF) {
+					utflen += 3;
+				} else {
+					utflen += 2;
+				}
+			}
+			if(utflen > 65535) {
+				throw new UTFDataFormatException("encoded string too long: " + utflen + " bytes");
+			}
+			AmfEncoder.this.writeShort(utflen);
+			ensure(utflen);
+			for(int i = 0; i < length; ++i) {
+				char c = s.charAt(i);
+				if(c >= 0x0001 && c <= 0x007F) {
+					buf.put(count++, (byte) c);
+				} else if(c > 0x07FF) {
+					buf.put(count++, (byte) (0xE0 | ((c >> 12) & 0x0F)));
+					buf.put(count++, (byte) (0x80 | ((c >> 6) & 0x3F)));
+					buf.put(count++, (byte) (0x80 | (c & 0x3F)));
+				} else {
+					buf.put(count++, (byte) (0xC0 | ((c >> 6) & 0x1F)));
+					buf.put(count++, (byte) (0x80 | (c & 0x3F)));
+				}
+			}
+		}
+	}
+}
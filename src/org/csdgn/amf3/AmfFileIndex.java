@@ -0,0 +1,203 @@
+/**
+ * Copyright (c) 2017 Robert Maupin
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.csdgn.amf3;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>
+ * An index of the entries of a SOL file held in a buffer. Only the file
+ * header is read when the index is created. The first time an entry is
+ * looked up, the rest of the file is walked without creating any values and
+ * the position of each top level value is recorded. After that only the
+ * entries asked for are decoded.
+ * </p>
+ * 
+ * <p>
+ * Values decoded from the index share references the same way they would if
+ * the whole file was read, so getting the same key twice returns the same
+ * AmfValue. This class is not thread safe.
+ * </p>
+ * 
+ * @author Robert Maupin
+ * @see AmfIO#indexFile(java.nio.file.Path, ExternalizableFactory...)
+ */
+public class AmfFileIndex {
+	private AmfDecoder decoder;
+	private Map<String, Integer> entries;
+	private String name;
+	// for each entry the position of its value and the table sizes there
+	private int[] offsets;
+	private int[] references;
+	private int[] strings;
+	private int[] traits;
+	private AmfValue[] values;
+
+	/**
+	 * Creates an index of the SOL file in the given buffer, starting at its
+	 * current position. The buffer must contain the whole file. Only the file
+	 * header is read by this constructor.
+	 * 
+	 * @param buffer
+	 *            The buffer containing the file.
+	 * @param ext
+	 *            The ExternalizableFactorys to use, if any.
+	 * @throws UnexpectedDataException
+	 *             if the file header is invalid.
+	 */
+	public AmfFileIndex(ByteBuffer buffer, ExternalizableFactory... ext) throws UnexpectedDataException {
+		decoder = new AmfDecoder(ext);
+		name = decoder.openFile(buffer);
+	}
+
+	/**
+	 * Determines if the file contains an entry with the given key.
+	 * 
+	 * @param key
+	 *            the key of the entry.
+	 * @return true if there is such an entry, false otherwise.
+	 * @throws IOException
+	 *             if an externalizable encountered an I/O error while indexing.
+	 * @throws UnexpectedDataException
+	 *             if invalid data was found while indexing.
+	 */
+	public boolean containsKey(String key) throws IOException, UnexpectedDataException {
+		return index().containsKey(key);
+	}
+
+	/**
+	 * Decodes the value of the entry with the given key.
+	 * 
+	 * @param key
+	 *            the key of the entry.
+	 * @return the value, or null if there is no such entry.
+	 * @throws IOException
+	 *             if an externalizable encountered an I/O error.
+	 * @throws UnexpectedDataException
+	 *             if invalid data was found during the read.
+	 */
+	public AmfValue get(String key) throws IOException, UnexpectedDataException {
+		Integer entry = index().get(key);
+		if(entry == null) {
+			return null;
+		}
+		int i = entry;
+		if(values[i] == null) {
+			values[i] = decoder.decodeAt(offsets[i], strings[i], traits[i], references[i]);
+		}
+		return values[i];
+	}
+
+	/**
+	 * Gets the name stored in the file header.
+	 * 
+	 * @return the file name.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Gets the position of the value of the entry with the given key, within
+	 * the buffer the index was created with.
+	 * 
+	 * @param key
+	 *            the key of the entry.
+	 * @return the position, or -1 if there is no such entry.
+	 * @throws IOException
+	 *             if an externalizable encountered an I/O error while indexing.
+	 * @throws UnexpectedDataException
+	 *             if invalid data was found while indexing.
+	 */
+	public int getOffset(String key) throws IOException, UnexpectedDataException {
+		Integer entry = index().get(key);
+		if(entry == null) {
+			return -1;
+		}
+		return offsets[entry];
+	}
+
+	/**
+	 * Gets the keys of the entries in the file, in file order.
+	 * 
+	 * @return an unmodifiable set of the keys.
+	 * @throws IOException
+	 *             if an externalizable encountered an I/O error while indexing.
+	 * @throws UnexpectedDataException
+	 *             if invalid data was found while indexing.
+	 */
+	public Set<String> keySet() throws IOException, UnexpectedDataException {
+		return Collections.unmodifiableSet(index().keySet());
+	}
+
+	/**
+	 * Walks the entries of the file the first time it is called.
+	 */
+	private Map<String, Integer> index() throws IOException, UnexpectedDataException {
+		if(entries != null) {
+			return entries;
+		}
+		Map<String, Integer> map = new LinkedHashMap<String, Integer>();
+		int count = 0;
+		offsets = new int[16];
+		strings = new int[16];
+		traits = new int[16];
+		references = new int[16];
+		while(decoder.hasNextEntry()) {
+			String key = decoder.readEntryKey();
+			if(count == offsets.length) {
+				offsets = Arrays.copyOf(offsets, count << 1);
+				strings = Arrays.copyOf(strings, count << 1);
+				traits = Arrays.copyOf(traits, count << 1);
+				references = Arrays.copyOf(references, count << 1);
+			}
+			offsets[count] = decoder.pos;
+			strings[count] = decoder.stringCount;
+			traits[count] = decoder.traitCount;
+			references[count] = decoder.referenceCount;
+			decoder.skipEntryValue();
+			map.put(key, count++);
+		}
+		values = new AmfValue[count];
+		entries = map;
+		return entries;
+	}
+
+	/**
+	 * Gets the number of entries in the file.
+	 * 
+	 * @return the entry count.
+	 * @throws IOException
+	 *             if an externalizable encountered an I/O error while indexing.
+	 * @throws UnexpectedDataException
+	 *             if invalid data was found while indexing.
+	 */
+	public int size() throws IOException, UnexpectedDataException {
+		return index().size();
+	}
+}
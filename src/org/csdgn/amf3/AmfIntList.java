@@ -0,0 +1,145 @@
+/**
+ * Copyright (c) 2017 Robert Maupin
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.csdgn.amf3;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * A list of AmfInteger backed by a int array. Elements are boxed into a new
+ * AmfInteger each time they are read, and only their values are stored when
+ * written, so changes to an AmfInteger taken from the list are not seen by the
+ * list.
+ * 
+ * @author Robert Maupin
+ * @see AmfVector.Integer
+ * @see AmfVector.UnsignedInteger
+ */
+class AmfIntList extends AbstractList<AmfInteger> implements RandomAccess {
+	int[] data;
+	int size;
+
+	AmfIntList() {
+		data = new int[8];
+	}
+
+	/**
+	 * Creates a list that takes ownership of the given array.
+	 */
+	AmfIntList(int[] data, int size) {
+		this.data = data;
+		this.size = size;
+	}
+
+	@Override
+	public void add(int index, AmfInteger element) {
+		if(index < 0 || index > size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+		insert(index, element.intValue());
+	}
+
+	void addInt(int value) {
+		if(size == data.length) {
+			data = Arrays.copyOf(data, Math.max(8, size << 1));
+		}
+		data[size++] = value;
+		++modCount;
+	}
+
+	@Override
+	public void clear() {
+		size = 0;
+		++modCount;
+	}
+
+	/**
+	 * Makes room for the given number of elements in total.
+	 */
+	void ensureCapacity(int capacity) {
+		if(capacity > data.length) {
+			data = Arrays.copyOf(data, Math.max(capacity, data.length << 1));
+		}
+	}
+
+	@Override
+	public AmfInteger get(int index) {
+		return new AmfInteger(getInt(index));
+	}
+
+	int getInt(int index) {
+		if(index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+		return data[index];
+	}
+
+	private void insert(int index, int value) {
+		if(size == data.length) {
+			data = Arrays.copyOf(data, Math.max(8, size << 1));
+		}
+		System.arraycopy(data, index, data, index + 1, size - index);
+		data[index] = value;
+		++size;
+		++modCount;
+	}
+
+	@Override
+	public AmfInteger remove(int index) {
+		AmfInteger old = get(index);
+		System.arraycopy(data, index + 1, data, index, size - index - 1);
+		--size;
+		++modCount;
+		return old;
+	}
+
+	@Override
+	protected void removeRange(int fromIndex, int toIndex) {
+		System.arraycopy(data, toIndex, data, fromIndex, size - toIndex);
+		size -= toIndex - fromIndex;
+		++modCount;
+	}
+
+	@Override
+	public AmfInteger set(int index, AmfInteger element) {
+		AmfInteger old = get(index);
+		data[index] = element.intValue();
+		return old;
+	}
+
+	void setInt(int index, int value) {
+		if(index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+		data[index] = value;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	int[] toIntArray() {
+		return Arrays.copyOf(data, size);
+	}
+}
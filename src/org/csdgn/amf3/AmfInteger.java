@@ -22,17 +22,76 @@
 package org.csdgn.amf3;
 
 /**
- * Associated with the AMF integer type. This class simply stores a Java Integer
+ * Associated with the AMF integer type. This class simply stores a Java int
  * internally.
  * 
  * @author Robert Maupin
  */
 public class AmfInteger extends AmfPrimitive<Integer> {
+	private static final int CACHE_LOW = -128;
+	private static final int CACHE_HIGH = 1023;
+	private static final AmfInteger[] cache = new AmfInteger[CACHE_HIGH - CACHE_LOW + 1];
+
+	static {
+		for(int i = 0; i < cache.length; ++i) {
+			cache[i] = new Constant(CACHE_LOW + i);
+		}
+	}
+
+	private static final class Constant extends AmfInteger {
+		Constant(int value) {
+			super(value);
+		}
+
+		@Override
+		public void setUnsignedValue(long value) {
+			throw new UnsupportedOperationException("This AmfInteger is shared and cannot be modified.");
+		}
+
+		@Override
+		public void setValue(int value) {
+			throw new UnsupportedOperationException("This AmfInteger is shared and cannot be modified.");
+		}
+
+		@Override
+		public void setValue(Integer value) {
+			throw new UnsupportedOperationException("This AmfInteger is shared and cannot be modified.");
+		}
+	}
+
+	/**
+	 * Gets an AmfInteger of the given value. Values from -128 to 1023 are
+	 * taken from a cache of shared instances, which cannot be modified, other
+	 * values are returned as new instances.
+	 * 
+	 * @param value
+	 *            The integer value.
+	 * @return An AmfInteger of the value.
+	 */
+	public static AmfInteger valueOf(int value) {
+		if(value >= CACHE_LOW && value <= CACHE_HIGH) {
+			return cache[value - CACHE_LOW];
+		}
+		return new AmfInteger(value);
+	}
+
+	private int value;
+
 	/**
 	 * Defines an AmfInteger with a value of zero.
 	 */
 	public AmfInteger() {
-		super(0);
+		value = 0;
+	}
+
+	/**
+	 * Defines an AmfInteger with the specified value.
+	 * 
+	 * @param value
+	 *            The integer value.
+	 */
+	public AmfInteger(int value) {
+		this.value = value;
 	}
 
 	/**
@@ -40,9 +99,19 @@ public class AmfInteger extends AmfPrimitive<Integer> {
 	 * 
 	 * @param value
 	 *            The integer value.
+	 * @throws UnsupportedOperationException
+	 *             If the value is null.
 	 */
 	public AmfInteger(Integer value) {
-		super(value);
+		setValue(value);
+	}
+
+	@Override
+	public boolean equals(AmfValue val) {
+		if(val instanceof AmfInteger) {
+			return value == ((AmfInteger) val).value;
+		}
+		return false;
 	}
 
 	@Override
@@ -50,13 +119,48 @@ public class AmfInteger extends AmfPrimitive<Integer> {
 		return AmfType.Integer;
 	}
 
+	@Override
+	public Integer getValue() {
+		return value;
+	}
+
+	@Override
+	public int hashCode() {
+		return value;
+	}
+
+	/**
+	 * Gets the value of this integer without boxing it.
+	 * 
+	 * @return The integer value.
+	 */
+	public int intValue() {
+		return value;
+	}
+
+	/**
+	 * Sets the value of this integer.
+	 * 
+	 * @param value
+	 *            The integer value.
+	 */
+	public void setValue(int value) {
+		this.value = value;
+	}
+
+	@Override
+	public void setValue(Integer value) {
+		checkValue(value);
+		this.value = value;
+	}
+
 	/**
 	 * Gets the unsigned value of this integer.
 	 * 
 	 * @return The unsigned integer value.
 	 */
 	public long getUnsignedValue() {
-		return getValue() & 0xFFFFFFFFL;
+		return value & 0xFFFFFFFFL;
 	}
 
 	/**
@@ -67,14 +171,14 @@ public class AmfInteger extends AmfPrimitive<Integer> {
 	 *            with the value 0xFFFFFFFF.
 	 */
 	public void setUnsignedValue(long value) {
-		setValue((int) (value & 0xFFFFFFFFL));
+		this.value = (int) (value & 0xFFFFFFFFL);
 	}
 	
 	@Override
 	public String toString() {
 		StringBuilder buf = new StringBuilder();
 		buf.append("Int[");
-		buf.append(getValue());
+		buf.append(value);
 		buf.append("]");
 		return buf.toString();
 	}
@@ -0,0 +1,149 @@
+/**
+ * Copyright (c) 2017 Robert Maupin
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.csdgn.amf3;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A list of AMF values that are decoded the first time they are accessed.
+ * Only the position of each value, along with the state of the decoder tables
+ * there, is stored up front. Modifying the list decodes the remaining values
+ * and from then on the list behaves as an ArrayList.
+ * 
+ * @author Robert Maupin
+ * @see AmfDecoder#decodeLazy(java.nio.ByteBuffer)
+ */
+class AmfLazyList extends AbstractList<AmfValue> implements RandomAccess {
+	private int count;
+	private AmfDecoder decoder;
+	private List<AmfValue> list;
+	private int[] offsets;
+	private int[] references;
+	private int[] strings;
+	private int[] traits;
+	private AmfValue[] values;
+
+	AmfLazyList(AmfDecoder decoder, int capacity) {
+		this.decoder = decoder;
+		capacity = Math.max(capacity, 1);
+		offsets = new int[capacity];
+		strings = new int[capacity];
+		traits = new int[capacity];
+		references = new int[capacity];
+	}
+
+	/**
+	 * Adds an element that starts at the given position.
+	 */
+	void add(int offset, int stringCount, int traitCount, int referenceCount) {
+		if(count == offsets.length) {
+			int length = count << 1;
+			offsets = Arrays.copyOf(offsets, length);
+			strings = Arrays.copyOf(strings, length);
+			traits = Arrays.copyOf(traits, length);
+			references = Arrays.copyOf(references, length);
+		}
+		offsets[count] = offset;
+		strings[count] = stringCount;
+		traits[count] = traitCount;
+		references[count] = referenceCount;
+		++count;
+	}
+
+	@Override
+	public void add(int index, AmfValue element) {
+		materialize().add(index, element);
+		++modCount;
+	}
+
+	@Override
+	public void clear() {
+		materialize().clear();
+		++modCount;
+	}
+
+	@Override
+	public AmfValue get(int index) {
+		if(list != null) {
+			return list.get(index);
+		}
+		if(index < 0 || index >= count) {
+			throw new IndexOutOfBoundsException(String.format("Index: %d, Size: %d", index, count));
+		}
+		if(values == null) {
+			values = new AmfValue[count];
+		}
+		AmfValue value = values[index];
+		if(value == null) {
+			try {
+				value = decoder.decodeAt(offsets[index], strings[index], traits[index], references[index]);
+			} catch(IOException | UnexpectedDataException e) {
+				throw new IllegalStateException("Element could not be decoded.", e);
+			}
+			values[index] = value;
+		}
+		return value;
+	}
+
+	/**
+	 * Decodes all of the values not yet decoded, after which the decoder is no
+	 * longer needed.
+	 */
+	private List<AmfValue> materialize() {
+		if(list == null) {
+			List<AmfValue> result = new ArrayList<AmfValue>(count);
+			for(int i = 0; i < count; ++i) {
+				result.add(get(i));
+			}
+			list = result;
+			decoder = null;
+			offsets = strings = traits = references = null;
+			values = null;
+		}
+		return list;
+	}
+
+	@Override
+	public AmfValue remove(int index) {
+		AmfValue value = materialize().remove(index);
+		++modCount;
+		return value;
+	}
+
+	@Override
+	public AmfValue set(int index, AmfValue element) {
+		return materialize().set(index, element);
+	}
+
+	@Override
+	public int size() {
+		if(list != null) {
+			return list.size();
+		}
+		return count;
+	}
+}
@@ -0,0 +1,182 @@
+/**
+ * Copyright (c) 2017 Robert Maupin
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.csdgn.amf3;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A map of AMF members whose values are decoded the first time they are
+ * looked up. Only the keys and the position of each value, along with the
+ * state of the decoder tables there, are stored up front. Lookups by key
+ * decode just the value asked for. Anything else, iteration or modification,
+ * decodes the remaining values and from then on the map behaves as a
+ * LinkedHashMap.
+ * 
+ * @author Robert Maupin
+ * @see AmfDecoder#decodeLazy(java.nio.ByteBuffer)
+ */
+class AmfLazyMap extends AbstractMap<String, AmfValue> {
+	private int count;
+	private AmfDecoder decoder;
+	private Map<String, Integer> index;
+	private String[] keys;
+	private Map<String, AmfValue> map;
+	private int[] offsets;
+	private int[] references;
+	private int[] strings;
+	private int[] traits;
+	private AmfValue[] values;
+
+	AmfLazyMap(AmfDecoder decoder, int capacity) {
+		this.decoder = decoder;
+		capacity = Math.max(capacity, 1);
+		keys = new String[capacity];
+		offsets = new int[capacity];
+		strings = new int[capacity];
+		traits = new int[capacity];
+		references = new int[capacity];
+	}
+
+	/**
+	 * Adds a member whose value starts at the given position.
+	 */
+	void add(String key, int offset, int stringCount, int traitCount, int referenceCount) {
+		if(count == keys.length) {
+			int length = count << 1;
+			keys = Arrays.copyOf(keys, length);
+			offsets = Arrays.copyOf(offsets, length);
+			strings = Arrays.copyOf(strings, length);
+			traits = Arrays.copyOf(traits, length);
+			references = Arrays.copyOf(references, length);
+		}
+		keys[count] = key;
+		offsets[count] = offset;
+		strings[count] = stringCount;
+		traits[count] = traitCount;
+		references[count] = referenceCount;
+		++count;
+	}
+
+	@Override
+	public void clear() {
+		materialize().clear();
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		if(map != null) {
+			return map.containsKey(key);
+		}
+		return index().containsKey(key);
+	}
+
+	@Override
+	public Set<Map.Entry<String, AmfValue>> entrySet() {
+		return materialize().entrySet();
+	}
+
+	@Override
+	public AmfValue get(Object key) {
+		if(map != null) {
+			return map.get(key);
+		}
+		Integer i = index().get(key);
+		if(i == null) {
+			return null;
+		}
+		return value(i);
+	}
+
+	/**
+	 * Maps each key to the last member with that key, which is the one that
+	 * would have been kept by an eagerly decoded map.
+	 */
+	private Map<String, Integer> index() {
+		if(index == null) {
+			index = new HashMap<String, Integer>();
+			for(int i = 0; i < count; ++i) {
+				index.put(keys[i], i);
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Decodes all of the values not yet decoded, after which the decoder is no
+	 * longer needed.
+	 */
+	private Map<String, AmfValue> materialize() {
+		if(map == null) {
+			Map<String, AmfValue> result = new LinkedHashMap<String, AmfValue>();
+			for(int i = 0; i < count; ++i) {
+				result.put(keys[i], value(i));
+			}
+			map = result;
+			decoder = null;
+			index = null;
+			keys = null;
+			offsets = strings = traits = references = null;
+			values = null;
+		}
+		return map;
+	}
+
+	@Override
+	public AmfValue put(String key, AmfValue value) {
+		return materialize().put(key, value);
+	}
+
+	@Override
+	public AmfValue remove(Object key) {
+		return materialize().remove(key);
+	}
+
+	@Override
+	public int size() {
+		if(map != null) {
+			return map.size();
+		}
+		return index().size();
+	}
+
+	private AmfValue value(int i) {
+		if(values == null) {
+			values = new AmfValue[count];
+		}
+		AmfValue value = values[i];
+		if(value == null) {
+			try {
+				value = decoder.decodeAt(offsets[i], strings[i], traits[i], references[i]);
+			} catch(IOException | UnexpectedDataException e) {
+				throw new IllegalStateException("Member could not be decoded.", e);
+			}
+			values[i] = value;
+		}
+		return value;
+	}
+}
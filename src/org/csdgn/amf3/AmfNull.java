@@ -27,6 +27,11 @@ package org.csdgn.amf3;
  *
  */
 public class AmfNull extends AmfValue {
+	/**
+	 * A shared AmfNull, which can be used anywhere as AmfNull has no state.
+	 */
+	public static final AmfNull NULL = new AmfNull();
+
 	@Override
 	public AmfType getType() {
 		return AmfType.Null;
@@ -21,10 +21,11 @@
  */
 package org.csdgn.amf3;
 
-import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 
 /**
  * Associated with the AMF object type. This handles ActionScript Objects and
@@ -40,6 +41,7 @@ public class AmfObject extends AmfValue {
 	private boolean isDynamic;
 	private boolean isExternalizable;
 	private Map<String, AmfValue> sealedMap;
+	private SimpleTrait trait;
 	private String traitName;
 
 	/**
@@ -52,7 +54,32 @@ public class AmfObject extends AmfValue {
 		isExternalizable = true;
 		traitName = "";
 		sealedMap = new LinkedHashMap<String, AmfValue>();
-		dynamicMap = new LinkedHashMap<String, AmfValue>();
+		dynamicMap = null;
+		customData = null;
+	}
+
+	/**
+	 * Constructs an AmfObject with the name, flags and sealed properties of
+	 * the given trait, used by the decoders. The keys of the sealed map are
+	 * shared with the trait and the values are kept in trait order, see
+	 * {@link #get(int)}. The trait must not have duplicate properties.
+	 */
+	AmfObject(SimpleTrait shape) {
+		setTrait(shape);
+		sealedMap = new AmfSlotMap(shape);
+		dynamicMap = null;
+		customData = null;
+	}
+
+	/**
+	 * Constructs an AmfObject backed by the given maps, used by the decoder.
+	 */
+	AmfObject(Map<String, AmfValue> sealedMap, Map<String, AmfValue> dynamicMap) {
+		isDynamic = false;
+		isExternalizable = true;
+		traitName = "";
+		this.sealedMap = sealedMap;
+		this.dynamicMap = dynamicMap;
 		customData = null;
 	}
 
@@ -64,11 +91,104 @@ public class AmfObject extends AmfValue {
 					&& !traitName.equals(traitName)) {
 				return false;
 			}
-			return obj.sealedMap.equals(sealedMap) && obj.dynamicMap.equals(dynamicMap);
+			return obj.sealedMap.equals(sealedMap) && obj.getDynamicSize() == getDynamicSize()
+					&& (getDynamicSize() == 0 || obj.dynamicMap.equals(dynamicMap));
 		}
 		return false;
 	}
 
+	/**
+	 * Gets the value of the sealed property with the given index, which is its
+	 * index in the properties of {@link #getTrait()}. For objects from the
+	 * decoders this is a plain array access, and the index can be looked up
+	 * once with {@link SimpleTrait#indexOf(String)} and used with every object
+	 * of the same trait.
+	 * 
+	 * @param index
+	 *            the index of the sealed property.
+	 * @return the value of the property.
+	 * @throws IndexOutOfBoundsException
+	 *             if there is no property with the given index.
+	 */
+	public AmfValue get(int index) {
+		AmfValue[] slots = getSlots();
+		if(slots != null) {
+			return slots[index];
+		}
+		if(index < 0 || index >= sealedMap.size()) {
+			throw new IndexOutOfBoundsException("Index: " + index);
+		}
+		Iterator<AmfValue> it = sealedMap.values().iterator();
+		for(int i = 0; i < index; ++i) {
+			it.next();
+		}
+		return it.next();
+	}
+
+	/**
+	 * Gets the value of the given property, looking first in the sealed and
+	 * then in the dynamic properties of this object.
+	 * 
+	 * @param name
+	 *            the name of the property.
+	 * @return the value of the property, or null if there is none.
+	 */
+	public AmfValue get(String name) {
+		AmfValue value = sealedMap.get(name);
+		if(value == null && dynamicMap != null) {
+			value = dynamicMap.get(name);
+		}
+		return value;
+	}
+
+	/**
+	 * Gets the value of the given property as a double, see
+	 * {@link #get(String)}. Integers are widened, and no wrapper objects are
+	 * created.
+	 * 
+	 * @param name
+	 *            the name of the property.
+	 * @return the value of the property.
+	 * @throws NoSuchElementException
+	 *             if there is no such property.
+	 * @throws ClassCastException
+	 *             if the property is not a number.
+	 */
+	public double getDouble(String name) {
+		return AmfPrimitive.toDouble(getRequired(name));
+	}
+
+	/**
+	 * Gets the value of the given property as an int, see {@link #get(String)}.
+	 * Doubles are truncated, and no wrapper objects are created.
+	 * 
+	 * @param name
+	 *            the name of the property.
+	 * @return the value of the property.
+	 * @throws NoSuchElementException
+	 *             if there is no such property.
+	 * @throws ClassCastException
+	 *             if the property is not a number.
+	 */
+	public int getInt(String name) {
+		return AmfPrimitive.toInt(getRequired(name));
+	}
+
+	private AmfValue getRequired(String name) {
+		AmfValue value = get(name);
+		if(value == null) {
+			throw new NoSuchElementException("No such property: " + name);
+		}
+		return value;
+	}
+
+	/**
+	 * Gets the number of dynamic properties, without creating the dynamic map.
+	 */
+	int getDynamicSize() {
+		return dynamicMap == null ? 0 : dynamicMap.size();
+	}
+
 	/**
 	 * Gets the dynamic map associated with this object. If the object is not
 	 * dynamic, the map will be empty. Unless {@link #isDynamic()} is set
@@ -78,6 +198,9 @@ public class AmfObject extends AmfValue {
 	 * @return The map associated with the dynamic portion of this object.
 	 */
 	public Map<String, AmfValue> getDynamicMap() {
+		if(dynamicMap == null) {
+			dynamicMap = new LinkedHashMap<String, AmfValue>();
+		}
 		return dynamicMap;
 	}
 
@@ -102,56 +225,87 @@ public class AmfObject extends AmfValue {
 	}
 
 	/**
-	 * The trait generated is backed by this object and changes in this object
-	 * will be reflected in the trait.
+	 * Gets the sealed values in trait order if they are kept in an array,
+	 * otherwise null. Changes to the array are changes to this object.
+	 */
+	AmfValue[] getSlots() {
+		if(sealedMap instanceof AmfSlotMap) {
+			return ((AmfSlotMap) sealedMap).getSlots();
+		}
+		return null;
+	}
+
+	/**
+	 * Gets the trait describing this object. The trait is cached and the same
+	 * instance is returned until the trait name, the flags or the keys of the
+	 * sealed map of this object change, so objects of the same shape can be
+	 * matched against a trait table cheaply.
 	 * 
 	 * @return the trait associated with this map.
 	 */
 	public Trait getTrait() {
-		return new Trait() {
-			@Override
-			public String getName() {
-				return traitName;
-			}
+		SimpleTrait cached = trait;
+		if(cached == null || !describes(cached)) {
+			cached = new SimpleTrait(traitName, isDynamic, isExternalizable,
+					sealedMap.keySet().toArray(new String[sealedMap.size()]));
+			trait = cached;
+		}
+		return cached;
+	}
 
-			@Override
-			public List<String> getProperties() {
-				ArrayList<String> list = new ArrayList<String>();
-				list.addAll(sealedMap.keySet());
-				return list;
-			}
+	/**
+	 * Sets the name and flags of this object from the given trait, and keeps
+	 * the trait for {@link #getTrait()}. Used by the decoders, which add the
+	 * sealed properties in trait order afterwards.
+	 */
+	void setTrait(SimpleTrait trait) {
+		this.traitName = trait.getName();
+		this.isDynamic = trait.isDynamic();
+		this.isExternalizable = trait.isExternalizable();
+		this.trait = trait;
+	}
 
-			@Override
-			public boolean isDynamic() {
-				return isDynamic;
-			}
+	/**
+	 * Clears this object and gives it the given trait, as the constructor
+	 * taking a trait does. Used by {@link AmfValuePool}.
+	 */
+	void recycle(SimpleTrait shape) {
+		setTrait(shape);
+		customData = null;
+		if(dynamicMap != null) {
+			dynamicMap.clear();
+		}
+		if(sealedMap instanceof AmfSlotMap) {
+			((AmfSlotMap) sealedMap).reset(shape);
+		} else {
+			sealedMap = new AmfSlotMap(shape);
+		}
+	}
 
-			@Override
-			public boolean isExternalizable() {
-				return isExternalizable;
-			}
-			
-			public boolean equals(Object obj) {
-				if(!(obj instanceof Trait)) {
-					return false;
-				}
-				Trait trait = (Trait)obj;
-				
-				if(!traitName.equals(trait.getName())) {
-					return false;
-				}
-				
-				if(isDynamic != trait.isDynamic()) {
-					return false;
-				}
-				
-				if(isExternalizable != trait.isExternalizable()) {
-					return false;
-				}
-				
-				return getProperties().equals(trait.getProperties());
+	/**
+	 * Checks if the given trait still matches this object, without allocating.
+	 */
+	private boolean describes(SimpleTrait trait) {
+		if(trait.isDynamic() != isDynamic || trait.isExternalizable() != isExternalizable
+				|| !trait.getName().equals(traitName)) {
+			return false;
+		}
+		if(sealedMap instanceof AmfSlotMap && ((AmfSlotMap) sealedMap).getShape() == trait) {
+			return true;
+		}
+		List<String> props = trait.getProperties();
+		if(props.size() != sealedMap.size()) {
+			return false;
+		}
+		Iterator<String> keys = sealedMap.keySet().iterator();
+		for(int i = 0; i < props.size(); ++i) {
+			String key = keys.next();
+			String prop = props.get(i);
+			if(key != prop && !key.equals(prop)) {
+				return false;
 			}
-		};
+		}
+		return true;
 	}
 
 	/**
@@ -261,14 +415,16 @@ public class AmfObject extends AmfValue {
 			buf.append(sealedMap.get(key));
 		}
 		//dynamic
-		for(String key : dynamicMap.keySet()) {
-			if(!first) {
-				buf.append(",");
+		if(dynamicMap != null) {
+			for(String key : dynamicMap.keySet()) {
+				if(!first) {
+					buf.append(",");
+				}
+				first = false;
+				buf.append(key);
+				buf.append("=");
+				buf.append(dynamicMap.get(key));
 			}
-			first = false;
-			buf.append(key);
-			buf.append("=");
-			buf.append(dynamicMap.get(key));
 		}
 		//don't even try to print custom data
 		buf.append("}");
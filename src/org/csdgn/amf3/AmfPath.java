@@ -0,0 +1,233 @@
+/**
+ * Copyright (c) 2017 Robert Maupin
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.csdgn.amf3;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * A compiled path to a value nested inside encoded AMF data, such as
+ * <code>player.inventory[3].itemId</code>. The path is followed directly
+ * over the encoded bytes. Members that are not on the path are skipped
+ * without being created, and only the value at the end of the path is
+ * decoded.
+ * </p>
+ * 
+ * <p>
+ * A path is a list of steps. A name step, written <code>.name</code> or
+ * <code>["name"]</code>, selects a sealed or dynamic property of an object, an
+ * associative member of an array, or a dictionary entry with a string key.
+ * An index step, written <code>[3]</code>, selects a dense member of an
+ * array, an element of a vector, or a dictionary entry with an integer key.
+ * The leading dot of the first name may be left out. The empty path selects
+ * the whole value.
+ * </p>
+ * 
+ * <p>
+ * Instances are immutable and may be shared between threads.
+ * </p>
+ * 
+ * @author Robert Maupin
+ */
+public class AmfPath {
+	/**
+	 * Compiles the given path expression.
+	 * 
+	 * @param path
+	 *            the path expression.
+	 * @return the compiled path.
+	 * @throws IllegalArgumentException
+	 *             if the path expression is invalid.
+	 */
+	public static AmfPath compile(String path) {
+		List<String> names = new ArrayList<String>();
+		List<Integer> indexes = new ArrayList<Integer>();
+		int i = 0;
+		int length = path.length();
+		while(i < length) {
+			char c = path.charAt(i);
+			if(c == '[') {
+				int end = path.indexOf(']', i);
+				if(end == -1) {
+					throw invalid(path, i);
+				}
+				if(i + 1 < length && (path.charAt(i + 1) == '"' || path.charAt(i + 1) == '\'')) {
+					// quoted name, which may contain any character
+					char quote = path.charAt(i + 1);
+					StringBuilder buf = new StringBuilder();
+					int j = i + 2;
+					for(; j < length && path.charAt(j) != quote; ++j) {
+						c = path.charAt(j);
+						if(c == '\\' && j + 1 < length) {
+							c = path.charAt(++j);
+						}
+						buf.append(c);
+					}
+					if(j + 1 >= length || path.charAt(j + 1) != ']') {
+						throw invalid(path, i);
+					}
+					names.add(buf.toString());
+					indexes.add(-1);
+					i = j + 2;
+				} else {
+					int index;
+					try {
+						index = Integer.parseInt(path.substring(i + 1, end));
+					} catch(NumberFormatException e) {
+						throw invalid(path, i);
+					}
+					if(index < 0) {
+						throw invalid(path, i);
+					}
+					names.add(null);
+					indexes.add(index);
+					i = end + 1;
+				}
+				continue;
+			}
+			if(c == '.') {
+				++i;
+			} else if(i != 0) {
+				throw invalid(path, i);
+			}
+			int end = i;
+			while(end < length && path.charAt(end) != '.' && path.charAt(end) != '[') {
+				++end;
+			}
+			if(end == i) {
+				throw invalid(path, i);
+			}
+			names.add(path.substring(i, end));
+			indexes.add(-1);
+			i = end;
+		}
+		return new AmfPath(path, names, indexes);
+	}
+
+	private static IllegalArgumentException invalid(String path, int index) {
+		return new IllegalArgumentException(String.format("Invalid path at index %d: %s", index, path));
+	}
+
+	private final int[] indexes;
+	private final byte[][] names;
+	private final String path;
+
+	private AmfPath(String path, List<String> names, List<Integer> indexes) {
+		this.path = path;
+		this.names = new byte[names.size()][];
+		this.indexes = new int[indexes.size()];
+		for(int i = 0; i < this.names.length; ++i) {
+			String name = names.get(i);
+			if(name != null) {
+				this.names[i] = name.getBytes(StandardCharsets.UTF_8);
+			}
+			this.indexes[i] = indexes.get(i);
+		}
+	}
+
+	/**
+	 * Extracts the value at the end of this path from the AMF value encoded in
+	 * the given array.
+	 * 
+	 * @param data
+	 *            The array to read from.
+	 * @param ext
+	 *            The ExternalizableFactorys to use, if any. These are needed
+	 *            to skip externalizable data.
+	 * @return The AmfValue found, or null if there is no value at this path.
+	 * @throws IOException
+	 *             if an externalizable encountered an I/O error.
+	 * @throws UnexpectedDataException
+	 *             if invalid data was found during the read.
+	 */
+	public AmfValue extract(byte[] data, ExternalizableFactory... ext) throws IOException, UnexpectedDataException {
+		return extract(ByteBuffer.wrap(data), ext);
+	}
+
+	/**
+	 * Extracts the value at the end of this path from the AMF value encoded in
+	 * the given region of an array.
+	 * 
+	 * @param data
+	 *            The array to read from.
+	 * @param offset
+	 *            The offset of the encoded value in the array.
+	 * @param length
+	 *            The number of bytes available to read.
+	 * @param ext
+	 *            The ExternalizableFactorys to use, if any. These are needed
+	 *            to skip externalizable data.
+	 * @return The AmfValue found, or null if there is no value at this path.
+	 * @throws IOException
+	 *             if an externalizable encountered an I/O error.
+	 * @throws UnexpectedDataException
+	 *             if invalid data was found during the read.
+	 */
+	public AmfValue extract(byte[] data, int offset, int length, ExternalizableFactory... ext)
+			throws IOException, UnexpectedDataException {
+		return extract(ByteBuffer.wrap(data, offset, length), ext);
+	}
+
+	/**
+	 * Extracts the value at the end of this path from the AMF value encoded at
+	 * the position of the given buffer. The position of the buffer is not
+	 * modified.
+	 * 
+	 * @param buffer
+	 *            The buffer to read from.
+	 * @param ext
+	 *            The ExternalizableFactorys to use, if any. These are needed
+	 *            to skip externalizable data.
+	 * @return The AmfValue found, or null if there is no value at this path.
+	 * @throws IOException
+	 *             if an externalizable encountered an I/O error.
+	 * @throws UnexpectedDataException
+	 *             if invalid data was found during the read.
+	 */
+	public AmfValue extract(ByteBuffer buffer, ExternalizableFactory... ext)
+			throws IOException, UnexpectedDataException {
+		AmfDecoder decoder = AmfDecoder.acquire(ext);
+		try {
+			return decoder.decodePath(buffer, names, indexes);
+		} finally {
+			decoder.release();
+		}
+	}
+
+	/**
+	 * Gets the number of steps in this path.
+	 * 
+	 * @return the step count.
+	 */
+	public int length() {
+		return names.length;
+	}
+
+	@Override
+	public String toString() {
+		return path;
+	}
+}
@@ -23,20 +23,17 @@ package org.csdgn.amf3;
 
 /**
  * Defines a single value that has a simple format. Such as a number or string.
+ * How the value is stored is left to the subclass, so numbers can be kept
+ * unboxed.
  * 
  * @author Robert Maupin
  */
 public abstract class AmfPrimitive<T> extends AmfValue {
-	private T value;
-
 	/**
-	 * Creates a new primitive with the specified value.
-	 * 
-	 * @param value
-	 *            The value of this primitive.
+	 * Creates a new primitive. The subclass is responsible for storing the
+	 * value.
 	 */
-	protected AmfPrimitive(T value) {
-		setValue(value);
+	protected AmfPrimitive() {
 	}
 
 	/**
@@ -44,9 +41,7 @@ public abstract class AmfPrimitive<T> extends AmfValue {
 	 * 
 	 * @return The primitives value.
 	 */
-	public T getValue() {
-		return value;
-	}
+	public abstract T getValue();
 
 	/**
 	 * Sets the value of this primitive.
@@ -57,18 +52,70 @@ public abstract class AmfPrimitive<T> extends AmfValue {
 	 *             If the value is null, AmfPrimitives do not support null
 	 *             values.
 	 */
-	public void setValue(T value) {
+	public abstract void setValue(T value);
+
+	/**
+	 * Checks that the given value is not null, for {@link #setValue(Object)}.
+	 * 
+	 * @param value
+	 *            The value to check.
+	 * @throws UnsupportedOperationException
+	 *             If the value is null.
+	 */
+	protected static void checkValue(Object value) {
 		if(value == null) {
 			throw new UnsupportedOperationException("A primitive value cannot be null.");
 		}
-		this.value = value;
 	}
 
 	@Override
 	public boolean equals(AmfValue val) {
 		if(val instanceof AmfPrimitive && val.getType() == getType()) {
-			return getValue() == ((AmfPrimitive<?>) val).getValue();
+			return getValue().equals(((AmfPrimitive<?>) val).getValue());
 		}
 		return false;
 	}
+
+	@Override
+	public int hashCode() {
+		return getValue().hashCode();
+	}
+
+	/**
+	 * Gets the given value as an int, for the typed accessors of the
+	 * containers. Doubles and dates are truncated.
+	 * 
+	 * @throws ClassCastException
+	 *             if the value is not a number.
+	 */
+	static int toInt(AmfValue value) {
+		if(value instanceof AmfInteger) {
+			return ((AmfInteger) value).intValue();
+		}
+		if(value instanceof AmfDouble) {
+			return (int) ((AmfDouble) value).doubleValue();
+		}
+		throw new ClassCastException(describe(value) + " is not a number.");
+	}
+
+	/**
+	 * Gets the given value as a double, for the typed accessors of the
+	 * containers.
+	 * 
+	 * @throws ClassCastException
+	 *             if the value is not a number.
+	 */
+	static double toDouble(AmfValue value) {
+		if(value instanceof AmfDouble) {
+			return ((AmfDouble) value).doubleValue();
+		}
+		if(value instanceof AmfInteger) {
+			return ((AmfInteger) value).intValue();
+		}
+		throw new ClassCastException(describe(value) + " is not a number.");
+	}
+
+	private static String describe(AmfValue value) {
+		return value == null ? "null" : value.getType().toString();
+	}
 }
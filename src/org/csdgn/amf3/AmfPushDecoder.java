@@ -0,0 +1,1038 @@
+/**
+ * Copyright (c) 2017 Robert Maupin
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.csdgn.amf3;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * <p>
+ * A non-blocking AMF3 decoder that is fed data as it arrives. Each call to
+ * {@link #feed(ByteBuffer)} decodes as much of the given data as it can and
+ * returns either a completed AmfValue or {@link #NEED_MORE_INPUT}. The
+ * decoder keeps its own parse stack, so it can stop in the middle of an
+ * object, string or vector and pick up where it left off with the next chunk
+ * of data. Only the part of a string or byte array that has been received is
+ * held, never the whole message.
+ * </p>
+ * 
+ * <p>
+ * Externalizable data has no length, so it is held until the
+ * {@link Externalizable} can read all of it without running out of data.
+ * </p>
+ * 
+ * <p>
+ * The string, trait and reference tables are cleared after each value, so
+ * back to back messages can be fed to the same decoder. This class is not
+ * thread safe.
+ * </p>
+ * 
+ * @author Robert Maupin
+ */
+public class AmfPushDecoder {
+	/**
+	 * Returned by {@link #feed(ByteBuffer)} when all of the data given was used
+	 * without completing a value.
+	 */
+	public static final AmfValue NEED_MORE_INPUT = new AmfValue() {
+		@Override
+		public boolean equals(AmfValue value) {
+			return value == this;
+		}
+
+		@Override
+		public AmfType getType() {
+			return null;
+		}
+
+		@Override
+		public String toString() {
+			return "NEED_MORE_INPUT";
+		}
+	};
+
+	// what is being read
+	private static final int STEP_MARKER = 0;
+	private static final int STEP_INTEGER = 1;
+	private static final int STEP_DOUBLE = 2;
+	private static final int STEP_STRING = 3;
+	private static final int STEP_HEADER = 4;
+	private static final int STEP_BYTES = 5;
+	private static final int STEP_DATE = 6;
+	private static final int STEP_TRAIT = 7;
+	private static final int STEP_DICTIONARY = 8;
+	private static final int STEP_VECTOR = 9;
+	private static final int STEP_MEMBER = 10;
+	private static final int STEP_EXTERNAL = 11;
+
+	// the kinds of frame on the parse stack
+	private static final int FRAME_ARRAY_ASSOCIATIVE = 0;
+	private static final int FRAME_ARRAY_DENSE = 1;
+	private static final int FRAME_OBJECT_SEALED = 2;
+	private static final int FRAME_OBJECT_DYNAMIC = 3;
+	private static final int FRAME_DICTIONARY = 4;
+	private static final int FRAME_VECTOR_GENERIC = 5;
+	private static final int FRAME_VECTOR_INT = 6;
+	private static final int FRAME_VECTOR_UINT = 7;
+	private static final int FRAME_VECTOR_DOUBLE = 8;
+
+	private List<ExternalizableFactory> factories;
+	private TraitRegistry registry;
+	private List<AmfValue> referenceTable;
+	private List<String> stringTable;
+	private List<SimpleTrait> traitTable;
+
+	// the decode limits, see setDecodeLimits, and the estimated size of the
+	// value being read
+	private int maxByteArrayLength = Integer.MAX_VALUE;
+	private int maxDepth = Integer.MAX_VALUE;
+	private int maxElements = Integer.MAX_VALUE;
+	private int maxReferences = Integer.MAX_VALUE;
+	private int maxStringLength = Integer.MAX_VALUE;
+	private long maxTotalBytes = Long.MAX_VALUE;
+	private long totalBytes;
+
+	// the parse stack, one frame for each open container, the key is the
+	// pending member name, or the pending key of a dictionary entry
+	private int depth;
+	private int[] frameCount;
+	private int[] frameIndex;
+	private Object[] frameKey;
+	private int[] frameKind;
+	private Trait[] frameTrait;
+	private AmfValue[] frameValue;
+
+	// the state of the value being read
+	private int step;
+	private AmfType type;
+	private int header;
+	private String traitName;
+	private String[] traitProperties;
+	private int traitIndex;
+	private boolean vectorFixed;
+	private boolean vectorFixedRead;
+
+	// the state of the token being read
+	private int u29Count;
+	private int u29Value;
+	private byte[] bytes;
+	private int byteCount;
+	private int byteLength;
+	private byte[] stringBytes;
+	private byte[] fixed;
+	private int fixedCount;
+	private byte[] external;
+	private int externalLength;
+
+	/**
+	 * Creates a new decoder with the given ExternalizableFactorys.
+	 * 
+	 * @param ext
+	 *            The ExternalizableFactorys to use, if any.
+	 */
+	public AmfPushDecoder(ExternalizableFactory... ext) {
+		this(new ArrayList<ExternalizableFactory>());
+		for(ExternalizableFactory factory : ext) {
+			addExternalizableFactory(factory);
+		}
+	}
+
+	/**
+	 * Creates a new decoder that uses the given list of factories, which is
+	 * shared with the caller.
+	 */
+	AmfPushDecoder(List<ExternalizableFactory> factories) {
+		this.factories = factories;
+		referenceTable = new ArrayList<AmfValue>();
+		stringTable = new ArrayList<String>();
+		traitTable = new ArrayList<SimpleTrait>();
+		frameCount = new int[8];
+		frameIndex = new int[8];
+		frameKey = new Object[8];
+		frameKind = new int[8];
+		frameTrait = new Trait[8];
+		frameValue = new AmfValue[8];
+		fixed = new byte[8];
+		step = STEP_MARKER;
+	}
+
+	/**
+	 * Associates the specified ExternalizableFactory with this decoder. Every
+	 * ExternalizableFactory is called in the order they were added in attempt
+	 * to find one that will provide a proper Externalizable for use.
+	 * 
+	 * @param factory
+	 *            the ExternalizableFactory to add
+	 */
+	public void addExternalizableFactory(ExternalizableFactory factory) {
+		if(Objects.isNull(factory)) {
+			throw new IllegalArgumentException("The factory provided cannot be null.");
+		}
+		factories.add(factory);
+	}
+
+	/**
+	 * Sets the registry used to share traits and their property names between
+	 * messages, or null to use none.
+	 * 
+	 * @param registry
+	 *            the registry to use, may be null.
+	 */
+	public void setTraitRegistry(TraitRegistry registry) {
+		this.registry = registry;
+	}
+
+	/**
+	 * Sets the limits checked while decoding, or null for no limits. The
+	 * limits are copied, so later changes to them have no effect. See
+	 * {@link DecodeLimits}.
+	 * 
+	 * @param limits
+	 *            the limits to use, may be null.
+	 */
+	public void setDecodeLimits(DecodeLimits limits) {
+		if(limits == null) {
+			limits = new DecodeLimits();
+		}
+		maxByteArrayLength = limits.getMaxByteArrayLength();
+		maxDepth = limits.getMaxDepth();
+		maxElements = limits.getMaxElements();
+		maxReferences = limits.getMaxReferences();
+		maxStringLength = limits.getMaxStringLength();
+		maxTotalBytes = limits.getMaxTotalBytes();
+	}
+
+	/**
+	 * Adds the given number of bytes to the estimated size of the value being
+	 * read.
+	 */
+	private void addBytes(long bytes) throws UnexpectedDataException {
+		totalBytes += bytes;
+		if(totalBytes > maxTotalBytes) {
+			throw DecodeLimits.exceeded("total bytes", maxTotalBytes);
+		}
+	}
+
+	/**
+	 * Records a value in the object reference table.
+	 */
+	private void addReference(AmfValue value) throws UnexpectedDataException {
+		if(referenceTable.size() >= maxReferences) {
+			throw DecodeLimits.exceeded("references", maxReferences);
+		}
+		referenceTable.add(value);
+	}
+
+	/**
+	 * Attaches a completed value to the frame on top of the stack.
+	 * 
+	 * @return the value if it completes the top level value, null otherwise.
+	 */
+	private AmfValue complete(AmfValue value) {
+		if(depth == 0) {
+			referenceTable.clear();
+			stringTable.clear();
+			traitTable.clear();
+			totalBytes = 0;
+			step = STEP_MARKER;
+			return value;
+		}
+		int d = depth - 1;
+		switch(frameKind[d]) {
+		case FRAME_ARRAY_ASSOCIATIVE:
+			((AmfArray) frameValue[d]).put((String) frameKey[d], value);
+			frameKey[d] = null;
+			break;
+		case FRAME_ARRAY_DENSE:
+			((AmfArray) frameValue[d]).add(value);
+			++frameIndex[d];
+			break;
+		case FRAME_OBJECT_SEALED: {
+			AmfValue[] slots = ((AmfObject) frameValue[d]).getSlots();
+			if(slots != null) {
+				slots[frameIndex[d]] = value;
+			} else {
+				((AmfObject) frameValue[d]).getSealedMap().put((String) frameKey[d], value);
+			}
+			frameKey[d] = null;
+			++frameIndex[d];
+			break;
+		}
+		case FRAME_OBJECT_DYNAMIC:
+			((AmfObject) frameValue[d]).getDynamicMap().put((String) frameKey[d], value);
+			frameKey[d] = null;
+			break;
+		case FRAME_DICTIONARY:
+			if(frameKey[d] == null) {
+				frameKey[d] = value;
+			} else {
+				((AmfDictionary) frameValue[d]).getMap().put((AmfValue) frameKey[d], value);
+				frameKey[d] = null;
+				++frameIndex[d];
+			}
+			break;
+		case FRAME_VECTOR_GENERIC:
+			((AmfVector.Generic) frameValue[d]).add(value);
+			++frameIndex[d];
+			break;
+		}
+		step = STEP_MEMBER;
+		return null;
+	}
+
+	/**
+	 * Decodes as much of the given data as possible. On return the position of
+	 * the buffer is just past the last byte used. If a value was completed
+	 * there may be data left in the buffer, which belongs to the next value.
+	 * Otherwise all of the data was used, and is either decoded or held by
+	 * this decoder until the rest of it arrives.
+	 * 
+	 * <p>
+	 * If an exception is thrown the state of the decoder is undefined, and
+	 * {@link #reset()} must be called before it is used again.
+	 * </p>
+	 * 
+	 * @param buffer
+	 *            The data to decode.
+	 * @return The completed AmfValue, or {@link #NEED_MORE_INPUT} if more data
+	 *         is needed.
+	 * @throws IOException
+	 *             if an externalizable encountered an I/O error.
+	 * @throws UnexpectedDataException
+	 *             if invalid data was found, often occurs with an invalid or
+	 *             unsupported format.
+	 */
+	public AmfValue feed(ByteBuffer buffer) throws IOException, UnexpectedDataException {
+		while(true) {
+			AmfValue value = next(buffer);
+			if(value == NEED_MORE_INPUT) {
+				return value;
+			}
+			if(value != null) {
+				value = complete(value);
+				if(value != null) {
+					return value;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of containers that are open, which is zero between
+	 * values.
+	 * 
+	 * @return the depth of the parse stack.
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Gets the class a value referenced with the given marker must have, the
+	 * same as AmfDecoder checks.
+	 */
+	private static Class<? extends AmfValue> getReferenceType(AmfType type) {
+		switch(type) {
+		case XmlDoc:
+		case Xml:
+			return AmfXml.class;
+		case Date:
+			return AmfDate.class;
+		case Array:
+			return AmfArray.class;
+		case Object:
+			return AmfObject.class;
+		case ByteArray:
+			return AmfByteArray.class;
+		case VectorInt:
+			return AmfVector.Integer.class;
+		case VectorUInt:
+			return AmfVector.UnsignedInteger.class;
+		case VectorDouble:
+			return AmfVector.Double.class;
+		case VectorGeneric:
+			return AmfVector.Generic.class;
+		case Dictionary:
+			return AmfDictionary.class;
+		default:
+			return AmfValue.class;
+		}
+	}
+
+	/**
+	 * Determines if this decoder is in the middle of a value, holding state
+	 * or data from previous calls to {@link #feed(ByteBuffer)}.
+	 * 
+	 * @return true if a value has been started but not completed.
+	 */
+	public boolean isPartial() {
+		return step != STEP_MARKER || depth != 0;
+	}
+
+	/**
+	 * Reads the next part of the current value.
+	 * 
+	 * @return a completed value, null if only the state changed, or
+	 *         NEED_MORE_INPUT.
+	 */
+	private AmfValue next(ByteBuffer in) throws IOException, UnexpectedDataException {
+		switch(step) {
+		case STEP_MARKER:
+			if(!in.hasRemaining()) {
+				return NEED_MORE_INPUT;
+			}
+			int typeId = in.get() & 0xFF;
+			addBytes(DecodeLimits.VALUE_SIZE);
+			type = AmfType.get(typeId);
+			if(type == null) {
+				throw new UnexpectedDataException(String.format("Unknown Value Type: 0x%x", typeId));
+			}
+			switch(type) {
+			case Undefined:
+				return new AmfUndefined();
+			case Null:
+				return new AmfNull();
+			case True:
+				return new AmfBoolean(true);
+			case False:
+				return new AmfBoolean(false);
+			case Integer:
+				step = STEP_INTEGER;
+				return null;
+			case Double:
+				step = STEP_DOUBLE;
+				return null;
+			case String:
+				step = STEP_STRING;
+				return null;
+			default:
+				step = STEP_HEADER;
+				return null;
+			}
+
+		case STEP_INTEGER:
+			if(!readU29(in)) {
+				return NEED_MORE_INPUT;
+			}
+			// sign extend the 29 bit integer
+			return new AmfInteger((takeU29() << 3) >> 3);
+
+		case STEP_DOUBLE:
+			if(!readFixed(in, 8)) {
+				return NEED_MORE_INPUT;
+			}
+			return new AmfDouble(Double.longBitsToDouble(takeLong()));
+
+		case STEP_STRING: {
+			String str = readString(in);
+			if(str == null) {
+				return NEED_MORE_INPUT;
+			}
+			return new AmfString(str);
+		}
+
+		case STEP_HEADER:
+			return readHeader(in, getReferenceType(type));
+
+		case STEP_BYTES: {
+			if(!readBytes(in)) {
+				return NEED_MORE_INPUT;
+			}
+			AmfValue value;
+			if(type == AmfType.ByteArray) {
+				// the bytes were read into an array of their own
+				value = new AmfByteArray(ByteBuffer.wrap(bytes));
+			} else {
+				AmfXml xml = new AmfXml(type == AmfType.XmlDoc);
+				xml.setValue(new String(bytes, StandardCharsets.UTF_8));
+				value = xml;
+			}
+			bytes = null;
+			addReference(value);
+			return value;
+		}
+
+		case STEP_DATE: {
+			if(!readFixed(in, 8)) {
+				return NEED_MORE_INPUT;
+			}
+			AmfDate date = new AmfDate(Double.longBitsToDouble(takeLong()));
+			addReference(date);
+			return date;
+		}
+
+		case STEP_TRAIT:
+			return readTrait(in);
+
+		case STEP_DICTIONARY: {
+			if(!in.hasRemaining()) {
+				return NEED_MORE_INPUT;
+			}
+			AmfDictionary dict = new AmfDictionary(in.get() != 0);
+			addReference(dict);
+			push(FRAME_DICTIONARY, dict, header);
+			return null;
+		}
+
+		case STEP_VECTOR:
+			return readVector(in);
+
+		case STEP_MEMBER:
+			return readMember(in);
+
+		case STEP_EXTERNAL:
+			return readExternal(in);
+		}
+		throw new IllegalStateException();
+	}
+
+	/**
+	 * Removes the top frame of the stack.
+	 * 
+	 * @return the completed container.
+	 */
+	private AmfValue pop() {
+		--depth;
+		AmfValue value = frameValue[depth];
+		frameValue[depth] = null;
+		frameTrait[depth] = null;
+		frameKey[depth] = null;
+		return value;
+	}
+
+	private void push(int kind, AmfValue value, int count) throws UnexpectedDataException {
+		if(depth >= maxDepth) {
+			throw DecodeLimits.exceeded("depth", maxDepth);
+		}
+		if(depth == frameKind.length) {
+			int length = depth << 1;
+			frameCount = Arrays.copyOf(frameCount, length);
+			frameIndex = Arrays.copyOf(frameIndex, length);
+			frameKey = Arrays.copyOf(frameKey, length);
+			frameKind = Arrays.copyOf(frameKind, length);
+			frameTrait = Arrays.copyOf(frameTrait, length);
+			frameValue = Arrays.copyOf(frameValue, length);
+		}
+		frameKind[depth] = kind;
+		frameValue[depth] = value;
+		frameCount[depth] = count;
+		frameIndex[depth] = 0;
+		frameKey[depth] = null;
+		++depth;
+		step = STEP_MEMBER;
+	}
+
+	/**
+	 * Fills the byte buffer of the current string or byte array, growing it
+	 * as the data arrives, but never past the length of the data.
+	 */
+	private boolean readBytes(ByteBuffer in) {
+		int length = Math.min(in.remaining(), byteLength - byteCount);
+		if(byteCount + length > bytes.length) {
+			long size = Math.max(byteCount + length, (long) bytes.length << 1);
+			bytes = Arrays.copyOf(bytes, (int) Math.min(size, byteLength));
+		}
+		in.get(bytes, byteCount, length);
+		byteCount += length;
+		return byteCount == byteLength;
+	}
+
+	/**
+	 * Reads the externalizable data of the object on top of the stack,
+	 * straight from the given buffer after any data held from before. If the
+	 * externalizable runs out of data the rest of the buffer is held until it
+	 * can be read in full.
+	 */
+	private AmfValue readExternal(ByteBuffer in) throws IOException, UnexpectedDataException {
+		int d = depth - 1;
+		String name = frameTrait[d].getName();
+		Externalizable ex = null;
+		for(ExternalizableFactory factory : factories) {
+			ex = factory.create(name);
+			if(ex != null) {
+				break;
+			}
+		}
+		if(ex == null) {
+			throw new UnsupportedOperationException("Externalizable factory does not support the externalizable data.");
+		}
+		int start = in.position();
+		ByteBuffer[] srcs;
+		if(externalLength == 0) {
+			srcs = new ByteBuffer[] { in };
+		} else {
+			srcs = new ByteBuffer[] { ByteBuffer.wrap(external, 0, externalLength), in };
+		}
+		try {
+			ex.readExternal(new DataInputStream(new AmfByteArray.BufferInputStream(srcs)));
+		} catch(EOFException e) {
+			// hold all of the buffer, and read it again with the rest
+			in.position(start);
+			int length = in.remaining();
+			// the held data is counted once it is used
+			if(totalBytes + externalLength + length > maxTotalBytes) {
+				throw DecodeLimits.exceeded("total bytes", maxTotalBytes);
+			}
+			if(external == null || externalLength + length > external.length) {
+				int size = Math.max(externalLength + length, 64);
+				external = external == null ? new byte[size] : Arrays.copyOf(external, Math.max(size, external.length << 1));
+			}
+			in.get(external, externalLength, length);
+			externalLength += length;
+			return NEED_MORE_INPUT;
+		} catch(UnexpectedDataException e) {
+			throw new UnsupportedOperationException("Externalizable cannot read the externalizable data.");
+		}
+		// the held data is always used, as it was not enough before
+		addBytes(externalLength + in.position() - start);
+		externalLength = 0;
+		((AmfObject) frameValue[d]).setExternalizableObject(ex);
+		return pop();
+	}
+
+	/**
+	 * Fills the fixed size buffer with the given number of bytes.
+	 */
+	private boolean readFixed(ByteBuffer in, int length) {
+		while(fixedCount < length) {
+			if(!in.hasRemaining()) {
+				return false;
+			}
+			fixed[fixedCount++] = in.get();
+		}
+		return true;
+	}
+
+	/**
+	 * Reads the header of a value that may be stored by reference. A
+	 * referenced value must be of the given type.
+	 */
+	private AmfValue readHeader(ByteBuffer in, Class<? extends AmfValue> referenceType) throws UnexpectedDataException {
+		if(!readU29(in)) {
+			return NEED_MORE_INPUT;
+		}
+		int h = takeU29();
+		if((h & 1) == 0) {
+			int index = h >>> 1;
+			if(index >= referenceTable.size()) {
+				throw new UnexpectedDataException(String.format("Invalid object reference: %d", index));
+			}
+			AmfValue value = referenceTable.get(index);
+			if(!referenceType.isInstance(value)) {
+				throw new UnexpectedDataException(String.format("Invalid object reference: %d is not a %s", index, referenceType.getSimpleName()));
+			}
+			return value;
+		}
+		header = h >>> 1;
+		switch(type) {
+		case XmlDoc:
+		case Xml:
+			if(header > maxStringLength) {
+				throw DecodeLimits.exceeded("string length", maxStringLength);
+			}
+			return startBytes(in);
+		case ByteArray:
+			if(header > maxByteArrayLength) {
+				throw DecodeLimits.exceeded("byte array length", maxByteArrayLength);
+			}
+			return startBytes(in);
+		case Date:
+			step = STEP_DATE;
+			return null;
+		case Object:
+			step = STEP_TRAIT;
+			return null;
+		default:
+			break;
+		}
+		// the header of everything else is its element count
+		if(header > maxElements) {
+			throw DecodeLimits.exceeded("elements", maxElements);
+		}
+		switch(type) {
+		case Array: {
+			AmfArray array = new AmfArray();
+			addReference(array);
+			push(FRAME_ARRAY_ASSOCIATIVE, array, header);
+			return null;
+		}
+		case Dictionary:
+			step = STEP_DICTIONARY;
+			return null;
+		default:
+			step = STEP_VECTOR;
+			return null;
+		}
+	}
+
+	/**
+	 * Starts reading the data of a byte array or XML value. The buffer starts
+	 * at the size of the data that has arrived and grows as more of it does.
+	 */
+	private AmfValue startBytes(ByteBuffer in) throws UnexpectedDataException {
+		addBytes(header);
+		bytes = new byte[Math.min(header, Math.max(in.remaining(), 64))];
+		byteCount = 0;
+		byteLength = header;
+		step = STEP_BYTES;
+		return null;
+	}
+
+	/**
+	 * Reads the next member of the container on top of the stack.
+	 */
+	private AmfValue readMember(ByteBuffer in) throws UnexpectedDataException {
+		int d = depth - 1;
+		switch(frameKind[d]) {
+		case FRAME_ARRAY_ASSOCIATIVE: {
+			String key = readString(in);
+			if(key == null) {
+				return NEED_MORE_INPUT;
+			}
+			if(key.length() == 0) {
+				frameKind[d] = FRAME_ARRAY_DENSE;
+				return null;
+			}
+			frameKey[d] = key;
+			step = STEP_MARKER;
+			return null;
+		}
+
+		case FRAME_OBJECT_SEALED: {
+			Trait trait = frameTrait[d];
+			if(frameIndex[d] < frameCount[d]) {
+				frameKey[d] = trait.getProperties().get(frameIndex[d]);
+				step = STEP_MARKER;
+				return null;
+			}
+			if(trait.isDynamic()) {
+				frameKind[d] = FRAME_OBJECT_DYNAMIC;
+				return null;
+			}
+			if(trait.isExternalizable()) {
+				step = STEP_EXTERNAL;
+				return null;
+			}
+			return pop();
+		}
+
+		case FRAME_OBJECT_DYNAMIC: {
+			String key = readString(in);
+			if(key == null) {
+				return NEED_MORE_INPUT;
+			}
+			if(key.length() == 0) {
+				if(frameTrait[d].isExternalizable()) {
+					step = STEP_EXTERNAL;
+					return null;
+				}
+				return pop();
+			}
+			frameKey[d] = key;
+			step = STEP_MARKER;
+			return null;
+		}
+
+		case FRAME_VECTOR_INT:
+		case FRAME_VECTOR_UINT:
+			if(frameIndex[d] == frameCount[d]) {
+				return pop();
+			}
+			if(!readFixed(in, 4)) {
+				return NEED_MORE_INPUT;
+			}
+			int value = (int) takeLong();
+			if(frameKind[d] == FRAME_VECTOR_INT) {
+				((AmfVector.Integer) frameValue[d]).add(value);
+			} else {
+				((AmfVector.UnsignedInteger) frameValue[d]).add(value);
+			}
+			++frameIndex[d];
+			return null;
+
+		case FRAME_VECTOR_DOUBLE:
+			if(frameIndex[d] == frameCount[d]) {
+				return pop();
+			}
+			if(!readFixed(in, 8)) {
+				return NEED_MORE_INPUT;
+			}
+			((AmfVector.Double) frameValue[d]).add(Double.longBitsToDouble(takeLong()));
+			++frameIndex[d];
+			return null;
+
+		default:
+			// dense array members, dictionary entries and generic vector elements
+			if(frameIndex[d] == frameCount[d]) {
+				return pop();
+			}
+			step = STEP_MARKER;
+			return null;
+		}
+	}
+
+	/**
+	 * Reads a string, which may be split over several buffers.
+	 * 
+	 * @return the string, or null if more data is needed.
+	 */
+	private String readString(ByteBuffer in) throws UnexpectedDataException {
+		if(bytes == null) {
+			if(!readU29(in)) {
+				return null;
+			}
+			int h = takeU29();
+
+			// Stored by reference?
+			if((h & 1) == 0) {
+				int index = h >>> 1;
+				if(index >= stringTable.size()) {
+					throw new UnexpectedDataException(String.format("Invalid string reference: %d", index));
+				}
+				return stringTable.get(index);
+			}
+
+			// Empty string (never stored by ref) ?
+			int length = h >>> 1;
+			if(length == 0) {
+				return "";
+			}
+			if(length > maxStringLength) {
+				throw DecodeLimits.exceeded("string length", maxStringLength);
+			}
+			if(stringTable.size() >= maxReferences) {
+				throw DecodeLimits.exceeded("strings", maxReferences);
+			}
+			addBytes(length);
+			if(stringBytes == null) {
+				stringBytes = new byte[64];
+			}
+			if(in.remaining() >= length) {
+				// the whole string is here, which it nearly always is
+				if(stringBytes.length < length) {
+					stringBytes = new byte[length];
+				}
+				String str = AmfUTF8.decode(in, length, stringBytes);
+				stringTable.add(str);
+				return str;
+			}
+			// otherwise it is gathered in the reused string buffer
+			bytes = stringBytes;
+			byteCount = 0;
+			byteLength = length;
+		}
+		if(!readBytes(in)) {
+			return null;
+		}
+		String str = new String(bytes, 0, byteLength, StandardCharsets.UTF_8);
+		// keep the buffer if it grew
+		stringBytes = bytes;
+		bytes = null;
+		stringTable.add(str);
+		return str;
+	}
+
+	/**
+	 * Reads the trait of an object and starts the object.
+	 */
+	private AmfValue readTrait(ByteBuffer in) throws UnexpectedDataException {
+		int h = header;
+		SimpleTrait trait;
+		if((h & 1) == 0) {
+			int index = h >>> 1;
+			if(index >= traitTable.size()) {
+				throw new UnexpectedDataException(String.format("Invalid trait reference: %d", index));
+			}
+			trait = traitTable.get(index);
+		} else {
+			if(traitName == null) {
+				if(h >>> 3 > maxElements) {
+					throw DecodeLimits.exceeded("elements", maxElements);
+				}
+				if(traitTable.size() >= maxReferences) {
+					throw DecodeLimits.exceeded("traits", maxReferences);
+				}
+				traitName = readString(in);
+				if(traitName == null) {
+					return NEED_MORE_INPUT;
+				}
+				// grown as the names arrive, see startBytes
+				traitProperties = new String[Math.min(h >>> 3, 8)];
+				traitIndex = 0;
+			}
+			int count = h >>> 3;
+			while(traitIndex < count) {
+				String property = readString(in);
+				if(property == null) {
+					return NEED_MORE_INPUT;
+				}
+				if(traitIndex == traitProperties.length) {
+					traitProperties = Arrays.copyOf(traitProperties, Math.min(count, traitIndex << 1));
+				}
+				traitProperties[traitIndex++] = property;
+			}
+			if(registry != null) {
+				traitName = registry.intern(traitName);
+				for(int i = 0; i < traitProperties.length; ++i) {
+					traitProperties[i] = registry.intern(traitProperties[i]);
+				}
+			}
+			trait = new SimpleTrait(traitName, (h & 4) != 0, (h & 2) != 0, traitProperties);
+			if(registry != null) {
+				trait = registry.intern(trait);
+			}
+			traitTable.add(trait);
+			traitName = null;
+			traitProperties = null;
+		}
+
+		AmfObject result;
+		if(trait.hasUniqueProperties()) {
+			result = new AmfObject(trait);
+		} else {
+			result = new AmfObject();
+			result.setTrait(trait);
+		}
+		addReference(result);
+		push(FRAME_OBJECT_SEALED, result, trait.getProperties().size());
+		frameTrait[depth - 1] = trait;
+		return null;
+	}
+
+	/**
+	 * Reads a 29 bit variable length integer, which may be split over several
+	 * buffers. The value is taken with {@link #takeU29()}.
+	 */
+	private boolean readU29(ByteBuffer in) {
+		while(in.hasRemaining()) {
+			int b = in.get() & 0xFF;
+			if(u29Count == 3) {
+				u29Value = (u29Value << 8) | b;
+				u29Count = 4;
+				return true;
+			}
+			u29Value = (u29Value << 7) | (b & 0x7F);
+			++u29Count;
+			if((b & 0x80) == 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Reads the header of a vector and starts the vector.
+	 */
+	private AmfValue readVector(ByteBuffer in) throws UnexpectedDataException {
+		if(!vectorFixedRead) {
+			if(!in.hasRemaining()) {
+				return NEED_MORE_INPUT;
+			}
+			vectorFixed = in.get() != 0;
+			vectorFixedRead = true;
+		}
+		AmfVector<?> vector;
+		int kind;
+		switch(type) {
+		case VectorInt:
+			addBytes((long) header << 2);
+			vector = new AmfVector.Integer();
+			kind = FRAME_VECTOR_INT;
+			break;
+		case VectorUInt:
+			addBytes((long) header << 2);
+			vector = new AmfVector.UnsignedInteger();
+			kind = FRAME_VECTOR_UINT;
+			break;
+		case VectorDouble:
+			addBytes((long) header << 3);
+			vector = new AmfVector.Double();
+			kind = FRAME_VECTOR_DOUBLE;
+			break;
+		default: {
+			String typeName = readString(in);
+			if(typeName == null) {
+				return NEED_MORE_INPUT;
+			}
+			vector = new AmfVector.Generic(typeName);
+			kind = FRAME_VECTOR_GENERIC;
+			break;
+		}
+		}
+		vectorFixedRead = false;
+		vector.setFixedLength(vectorFixed);
+		vector.setCapacity(header);
+		addReference(vector);
+		push(kind, vector, header);
+		return null;
+	}
+
+	/**
+	 * Discards any partly decoded value and clears the tables, so that the
+	 * next call to {@link #feed(ByteBuffer)} starts a new value.
+	 */
+	public void reset() {
+		while(depth > 0) {
+			pop();
+		}
+		referenceTable.clear();
+		stringTable.clear();
+		traitTable.clear();
+		step = STEP_MARKER;
+		type = null;
+		traitName = null;
+		traitProperties = null;
+		vectorFixedRead = false;
+		u29Count = 0;
+		u29Value = 0;
+		bytes = null;
+		fixedCount = 0;
+		externalLength = 0;
+		totalBytes = 0;
+	}
+
+	/**
+	 * Takes the big-endian value held in the fixed size buffer.
+	 */
+	private long takeLong() {
+		long value = 0;
+		for(int i = 0; i < fixedCount; ++i) {
+			value = (value << 8) | (fixed[i] & 0xFF);
+		}
+		fixedCount = 0;
+		return value;
+	}
+
+	private int takeU29() {
+		int value = u29Value;
+		u29Count = 0;
+		u29Value = 0;
+		return value;
+	}
+}
@@ -0,0 +1,786 @@
+/**
+ * Copyright (c) 2017 Robert Maupin
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.csdgn.amf3;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * <p>
+ * A pull parser over a single serialized AMF3 value. Instead of building a
+ * tree of AmfValues, each call to {@link #next()} returns the next
+ * {@link Token} in the data, and the details of that token are available from
+ * the typed accessors such as {@link #getInt()}, {@link #getDouble()} and
+ * {@link #getStringBytes()}.
+ * </p>
+ * 
+ * <p>
+ * Strings are not decoded unless asked for, and the string, trait and object
+ * reference tables are tracked as positions within the buffer, so the memory
+ * used does not depend on the size of the values read. Values that are stored
+ * by reference are reported as a {@link Token#REFERENCE} with the index into
+ * the object reference table, they are not expanded.
+ * </p>
+ * 
+ * @author Robert Maupin
+ */
+public class AmfReader extends AmfBufferInput {
+	/**
+	 * The tokens returned by {@link AmfReader#next()}.
+	 * 
+	 * @author Robert Maupin
+	 */
+	public static enum Token {
+		/** An undefined value. */
+		UNDEFINED,
+		/** A null value. */
+		NULL,
+		/** A true or false value, see {@link AmfReader#getBoolean()}. */
+		BOOLEAN,
+		/**
+		 * An integer value, or an element of an integer vector, see
+		 * {@link AmfReader#getInt()}.
+		 */
+		INTEGER,
+		/**
+		 * A double value, or an element of a double vector, see
+		 * {@link AmfReader#getDouble()}.
+		 */
+		DOUBLE,
+		/** A string value, see {@link AmfReader#getString()}. */
+		STRING,
+		/**
+		 * An XML value, see {@link AmfReader#getString()} and
+		 * {@link AmfReader#getValueType()}.
+		 */
+		XML,
+		/**
+		 * A date value, the milliseconds since the epoch are available from
+		 * {@link AmfReader#getDouble()}.
+		 */
+		DATE,
+		/** A byte array value, see {@link AmfReader#getByteArray()}. */
+		BYTE_ARRAY,
+		/**
+		 * A value stored by reference, see
+		 * {@link AmfReader#getReferenceIndex()} and
+		 * {@link AmfReader#getValueType()}.
+		 */
+		REFERENCE,
+		/**
+		 * The start of an object, the trait name is available from
+		 * {@link AmfReader#getString()}.
+		 */
+		START_OBJECT,
+		/**
+		 * The name of the next property of an object or associative array,
+		 * the value follows as the next token.
+		 */
+		PROPERTY_NAME,
+		/**
+		 * The externalizable data of an object, see
+		 * {@link AmfReader#getExternalizable()}.
+		 */
+		EXTERNALIZABLE,
+		/** The end of an object. */
+		END_OBJECT,
+		/**
+		 * The start of an array, the dense count is available from
+		 * {@link AmfReader#getCount()}. The associative part is read first.
+		 */
+		START_ARRAY,
+		/** The end of an array. */
+		END_ARRAY,
+		/**
+		 * The start of a dictionary, the entry count is available from
+		 * {@link AmfReader#getCount()}. Each entry is read as a key value
+		 * followed by a value.
+		 */
+		START_DICTIONARY,
+		/** The end of a dictionary. */
+		END_DICTIONARY,
+		/**
+		 * The start of a vector, the length is available from
+		 * {@link AmfReader#getCount()} and the kind of vector from
+		 * {@link AmfReader#getValueType()}. The type name of generic vectors
+		 * is available from {@link AmfReader#getString()}.
+		 */
+		START_VECTOR,
+		/** The end of a vector. */
+		END_VECTOR,
+		/** There are no more tokens. */
+		END_DOCUMENT
+	}
+
+	private static final int FRAME_ARRAY_ASSOCIATIVE = 0;
+	private static final int FRAME_ARRAY_DENSE = 1;
+	private static final int FRAME_DICTIONARY = 2;
+	private static final int FRAME_OBJECT_DYNAMIC = 3;
+	private static final int FRAME_OBJECT_END = 4;
+	private static final int FRAME_OBJECT_EXTERNAL = 5;
+	private static final int FRAME_OBJECT_SEALED = 6;
+	private static final int FRAME_VECTOR = 7;
+
+	private boolean booleanValue;
+	private int count;
+	private int depth;
+	private double doubleValue;
+	private Externalizable externalizable;
+	// for each frame, the trait for objects or the vector type
+	private int[] frameAux;
+	// for each frame, the number of values remaining, or the next sealed
+	// property index for objects
+	private int[] frameCount;
+	private int[] frameKind;
+	private int intValue;
+	private boolean pendingValue;
+	private boolean started;
+	private int stringLength;
+	private int stringOffset;
+	private Token token;
+	private AmfType valueType;
+
+	/**
+	 * Creates a reader over the given byte array.
+	 * 
+	 * @param data
+	 *            The array to read from.
+	 * @param ext
+	 *            The ExternalizableFactorys to use, if any.
+	 */
+	public AmfReader(byte[] data, ExternalizableFactory... ext) {
+		this(ByteBuffer.wrap(data), ext);
+	}
+
+	/**
+	 * Creates a reader over the given region of a byte array.
+	 * 
+	 * @param data
+	 *            The array to read from.
+	 * @param offset
+	 *            The offset of the value in the array.
+	 * @param length
+	 *            The number of bytes available to read.
+	 * @param ext
+	 *            The ExternalizableFactorys to use, if any.
+	 */
+	public AmfReader(byte[] data, int offset, int length, ExternalizableFactory... ext) {
+		this(ByteBuffer.wrap(data, offset, length), ext);
+	}
+
+	/**
+	 * Creates a reader over the given buffer, starting at its current
+	 * position. The position of the given buffer is not modified.
+	 * 
+	 * @param buffer
+	 *            The buffer to read from.
+	 * @param ext
+	 *            The ExternalizableFactorys to use, if any.
+	 */
+	public AmfReader(ByteBuffer buffer, ExternalizableFactory... ext) {
+		frameKind = new int[8];
+		frameCount = new int[8];
+		frameAux = new int[8];
+		for(ExternalizableFactory factory : ext) {
+			addExternalizableFactory(factory);
+		}
+		reset(buffer);
+	}
+
+	/**
+	 * Associates the specified ExternalizableFactory with this reader. Every
+	 * ExternalizableFactory is called in the order they were added in attempt
+	 * to find one that will provide a proper Externalizable for use.
+	 * 
+	 * @param factory
+	 *            the ExternalizableFactory to add
+	 */
+	public void addExternalizableFactory(ExternalizableFactory factory) {
+		if(Objects.isNull(factory)) {
+			throw new IllegalArgumentException("The factory provided cannot be null.");
+		}
+		factories.add(factory);
+	}
+
+	/**
+	 * Gets the value of the current {@link Token#BOOLEAN} token. For a
+	 * {@link Token#START_VECTOR} token this indicates if the vector has a
+	 * fixed length, and for a {@link Token#START_DICTIONARY} token if the
+	 * dictionary has weak keys.
+	 * 
+	 * @return the boolean value
+	 */
+	public boolean getBoolean() {
+		return booleanValue;
+	}
+
+	/**
+	 * Gets the contents of the current {@link Token#BYTE_ARRAY} token.
+	 * 
+	 * @return a read only view of the byte array data.
+	 */
+	public ByteBuffer getByteArray() {
+		return view(stringOffset, count);
+	}
+
+	/**
+	 * Gets the count associated with the current token. This is the dense
+	 * count of a {@link Token#START_ARRAY}, the number of entries of a
+	 * {@link Token#START_DICTIONARY}, the length of a
+	 * {@link Token#START_VECTOR} and the length of a {@link Token#BYTE_ARRAY}.
+	 * 
+	 * @return the count
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * Gets the nesting depth of the reader. This is zero outside of any
+	 * object, array, dictionary or vector.
+	 * 
+	 * @return the depth
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Gets the value of the current {@link Token#DOUBLE} or
+	 * {@link Token#DATE} token.
+	 * 
+	 * @return the double value
+	 */
+	public double getDouble() {
+		return doubleValue;
+	}
+
+	/**
+	 * Gets the value read for the current {@link Token#EXTERNALIZABLE} token.
+	 * 
+	 * @return the externalizable
+	 */
+	public Externalizable getExternalizable() {
+		return externalizable;
+	}
+
+	/**
+	 * Gets the value of the current {@link Token#INTEGER} token. Elements of
+	 * unsigned integer vectors are returned as their raw 32 bits, see
+	 * {@link #getUnsignedInt()}.
+	 * 
+	 * @return the integer value
+	 */
+	public int getInt() {
+		return intValue;
+	}
+
+	/**
+	 * Gets the position within the buffer of the next byte to be read.
+	 * 
+	 * @return the position
+	 */
+	public int getPosition() {
+		return pos;
+	}
+
+	/**
+	 * Gets the index into the object reference table of the current
+	 * {@link Token#REFERENCE} token.
+	 * 
+	 * @return the reference index
+	 */
+	public int getReferenceIndex() {
+		return intValue;
+	}
+
+	/**
+	 * Decodes the string associated with the current token. This is the value
+	 * of a {@link Token#STRING} or {@link Token#XML}, the name of a
+	 * {@link Token#PROPERTY_NAME}, the trait name of a
+	 * {@link Token#START_OBJECT} or the type name of a generic
+	 * {@link Token#START_VECTOR}.
+	 * 
+	 * @return the string
+	 * @throws UnexpectedDataException
+	 *             if the string cannot be decoded.
+	 */
+	public String getString() throws UnexpectedDataException {
+		if(stringLength == 0) {
+			return "";
+		}
+		int mark = pos;
+		pos = stringOffset;
+		String str = readUTF8(stringLength);
+		pos = mark;
+		return str;
+	}
+
+	/**
+	 * Gets the encoded bytes of the string associated with the current token,
+	 * without decoding it. See {@link #getString()}.
+	 * 
+	 * @return a read only view of the UTF-8 encoded string.
+	 */
+	public ByteBuffer getStringBytes() {
+		return view(stringOffset, stringLength);
+	}
+
+	/**
+	 * Gets the current token.
+	 * 
+	 * @return the current token, or null if {@link #next()} has not been
+	 *         called.
+	 */
+	public Token getToken() {
+		return token;
+	}
+
+	/**
+	 * Gets the unsigned value of the current {@link Token#INTEGER} token.
+	 * 
+	 * @return the unsigned integer value
+	 */
+	public long getUnsignedInt() {
+		return intValue & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * Gets the AmfType of the current value token. For a
+	 * {@link Token#REFERENCE} this is the type of the value referenced.
+	 * 
+	 * @return the type, or null if the current token is not a value.
+	 */
+	public AmfType getValueType() {
+		return valueType;
+	}
+
+	/**
+	 * Reads the next token.
+	 * 
+	 * @return the next token
+	 * @throws IOException
+	 *             if an externalizable encountered an I/O error.
+	 * @throws UnexpectedDataException
+	 *             if invalid data was found during the read, often occurs with
+	 *             an invalid or unsupported format.
+	 */
+	public Token next() throws IOException, UnexpectedDataException {
+		valueType = null;
+		if(pendingValue) {
+			pendingValue = false;
+			return token = readValueToken();
+		}
+		if(depth == 0) {
+			if(started) {
+				return token = Token.END_DOCUMENT;
+			}
+			started = true;
+			return token = readValueToken();
+		}
+
+		int top = depth - 1;
+		while(true) {
+			switch(frameKind[top]) {
+			case FRAME_ARRAY_ASSOCIATIVE:
+				int key = readStringIndex();
+				if(key == -1) {
+					frameKind[top] = FRAME_ARRAY_DENSE;
+					continue;
+				}
+				setString(key);
+				pendingValue = true;
+				return token = Token.PROPERTY_NAME;
+
+			case FRAME_ARRAY_DENSE:
+				if(frameCount[top] > 0) {
+					--frameCount[top];
+					return token = readValueToken();
+				}
+				--depth;
+				return token = Token.END_ARRAY;
+
+			case FRAME_DICTIONARY:
+				if(frameCount[top] > 0) {
+					--frameCount[top];
+					return token = readValueToken();
+				}
+				--depth;
+				return token = Token.END_DICTIONARY;
+
+			case FRAME_OBJECT_SEALED: {
+				int trait = frameAux[top];
+				int index = frameCount[top];
+				if(index < (traitFlags[trait] >>> 2)) {
+					frameCount[top] = index + 1;
+					setString(traitProperties[traitStarts[trait] + index]);
+					pendingValue = true;
+					return token = Token.PROPERTY_NAME;
+				}
+				if((traitFlags[trait] & TRAIT_DYNAMIC) != 0) {
+					frameKind[top] = FRAME_OBJECT_DYNAMIC;
+				} else if((traitFlags[trait] & TRAIT_EXTERNALIZABLE) != 0) {
+					frameKind[top] = FRAME_OBJECT_EXTERNAL;
+				} else {
+					frameKind[top] = FRAME_OBJECT_END;
+				}
+				continue;
+			}
+
+			case FRAME_OBJECT_DYNAMIC: {
+				int name = readStringIndex();
+				if(name != -1) {
+					setString(name);
+					pendingValue = true;
+					return token = Token.PROPERTY_NAME;
+				}
+				if((traitFlags[frameAux[top]] & TRAIT_EXTERNALIZABLE) != 0) {
+					frameKind[top] = FRAME_OBJECT_EXTERNAL;
+				} else {
+					frameKind[top] = FRAME_OBJECT_END;
+				}
+				continue;
+			}
+
+			case FRAME_OBJECT_EXTERNAL:
+				frameKind[top] = FRAME_OBJECT_END;
+				externalizable = readExternalizable(getTableString(traitNames[frameAux[top]]));
+				return token = Token.EXTERNALIZABLE;
+
+			case FRAME_OBJECT_END:
+				--depth;
+				return token = Token.END_OBJECT;
+
+			case FRAME_VECTOR:
+				if(frameCount[top] > 0) {
+					--frameCount[top];
+					return token = readVectorElement(frameAux[top]);
+				}
+				--depth;
+				return token = Token.END_VECTOR;
+			}
+			throw new IllegalStateException();
+		}
+	}
+
+	/**
+	 * Resets this reader to read a new value from the given buffer, starting
+	 * at its current position. The position of the given buffer is not
+	 * modified. The reference tables are cleared but their backing arrays are
+	 * kept.
+	 * 
+	 * @param buffer
+	 *            The buffer to read from.
+	 */
+	public void reset(ByteBuffer buffer) {
+		setInput(buffer);
+		clearTables();
+		depth = 0;
+		started = false;
+		pendingValue = false;
+		token = null;
+		valueType = null;
+		externalizable = null;
+	}
+
+	/**
+	 * Skips the rest of the object, array, dictionary or vector started by the
+	 * current token. After this the current token is the matching END token.
+	 * 
+	 * @return the END token
+	 * @throws IOException
+	 *             if an externalizable encountered an I/O error.
+	 * @throws UnexpectedDataException
+	 *             if invalid data was found during the read.
+	 * @throws IllegalStateException
+	 *             if the current token is not a START token.
+	 */
+	public Token skipChildren() throws IOException, UnexpectedDataException {
+		if(token != Token.START_ARRAY && token != Token.START_DICTIONARY && token != Token.START_OBJECT
+				&& token != Token.START_VECTOR) {
+			throw new IllegalStateException("The current token is not the start of a container.");
+		}
+		int target = depth - 1;
+		while(depth > target) {
+			// whole values are skipped, so only the tokens of this container
+			// are ever read
+			if(!skipNextValue()) {
+				next();
+			}
+		}
+		return token;
+	}
+
+	/**
+	 * Skips the value that would otherwise be started by the next call to
+	 * {@link #next()}, without creating or decoding it. This can be used
+	 * after a {@link Token#PROPERTY_NAME}, inside the dense part of an array,
+	 * inside a dictionary or vector, or before the first value is read. The
+	 * reference tables are updated as if the value had been read.
+	 * 
+	 * @throws IOException
+	 *             if an externalizable encountered an I/O error.
+	 * @throws UnexpectedDataException
+	 *             if invalid data was found during the read.
+	 * @throws IllegalStateException
+	 *             if the next token would not be the start of a value.
+	 */
+	public void skipValue() throws IOException, UnexpectedDataException {
+		if(!skipNextValue()) {
+			throw new IllegalStateException("The next token is not a value.");
+		}
+		token = null;
+		valueType = null;
+	}
+
+	/**
+	 * Compares the string associated with the current token against the given
+	 * UTF-8 encoded bytes, without decoding it. See {@link #getString()}.
+	 * 
+	 * @param utf8
+	 *            the UTF-8 encoded string to compare against.
+	 * @return true if the strings are equal, false otherwise.
+	 */
+	public boolean stringEquals(byte[] utf8) {
+		return bytesEqual(stringOffset, stringLength, utf8);
+	}
+
+	private boolean skipNextValue() throws IOException, UnexpectedDataException {
+		if(pendingValue) {
+			pendingValue = false;
+			skipEncodedValue();
+			return true;
+		}
+		if(depth == 0) {
+			if(started) {
+				return false;
+			}
+			started = true;
+			skipEncodedValue();
+			return true;
+		}
+		int top = depth - 1;
+		switch(frameKind[top]) {
+		case FRAME_ARRAY_DENSE:
+		case FRAME_DICTIONARY:
+			if(frameCount[top] == 0) {
+				return false;
+			}
+			--frameCount[top];
+			skipEncodedValue();
+			return true;
+
+		case FRAME_VECTOR:
+			if(frameCount[top] == 0) {
+				return false;
+			}
+			--frameCount[top];
+			if(frameAux[top] == AmfType.VectorGeneric.id) {
+				skipEncodedValue();
+			} else if(frameAux[top] == AmfType.VectorDouble.id) {
+				skipBytes(8);
+			} else {
+				skipBytes(4);
+			}
+			return true;
+		}
+		return false;
+	}
+
+	private void push(int kind, int count, int aux) throws UnexpectedDataException {
+		if(depth >= maxDepth) {
+			throw DecodeLimits.exceeded("depth", maxDepth);
+		}
+		if(depth == frameKind.length) {
+			frameKind = Arrays.copyOf(frameKind, depth << 1);
+			frameCount = Arrays.copyOf(frameCount, depth << 1);
+			frameAux = Arrays.copyOf(frameAux, depth << 1);
+		}
+		frameKind[depth] = kind;
+		frameCount[depth] = count;
+		frameAux[depth] = aux;
+		++depth;
+	}
+
+	/**
+	 * Reads the header of a complex value.
+	 * 
+	 * @return the header without the reference bit, or -1 if the value is
+	 *         stored by reference, in which case the reference token has been
+	 *         set up.
+	 */
+	private int readReferenceHeader(int start, int strings, int traits) throws UnexpectedDataException {
+		int h = readU29();
+		if((h & 1) == 0) {
+			intValue = h >>> 1;
+			checkReference(intValue, valueType);
+			return -1;
+		}
+		addReference(start, strings, traits);
+		return h >>> 1;
+	}
+
+	private Token readValueToken() throws IOException, UnexpectedDataException {
+		int start = pos;
+		int strings = stringCount;
+		int traits = traitCount;
+		int typeId = readUnsignedByte();
+		AmfType type = AmfType.get(typeId);
+		if(type == null) {
+			throw new UnexpectedDataException(String.format("Unknown Value Type: 0x%x", typeId));
+		}
+		valueType = type;
+		int h;
+		switch(type) {
+		case Undefined:
+			return Token.UNDEFINED;
+
+		case Null:
+			return Token.NULL;
+
+		case True:
+			booleanValue = true;
+			return Token.BOOLEAN;
+
+		case False:
+			booleanValue = false;
+			return Token.BOOLEAN;
+
+		case Integer:
+			intValue = readS29();
+			return Token.INTEGER;
+
+		case Double:
+			doubleValue = readDouble();
+			return Token.DOUBLE;
+
+		case String:
+			setString(readStringIndex());
+			return Token.STRING;
+
+		case XmlDoc:
+		case Xml:
+			if((h = readReferenceHeader(start, strings, traits)) == -1) {
+				return Token.REFERENCE;
+			}
+			require(h);
+			stringOffset = pos;
+			stringLength = h;
+			pos += h;
+			return Token.XML;
+
+		case Date:
+			if((h = readReferenceHeader(start, strings, traits)) == -1) {
+				return Token.REFERENCE;
+			}
+			doubleValue = readDouble();
+			return Token.DATE;
+
+		case ByteArray:
+			if((h = readReferenceHeader(start, strings, traits)) == -1) {
+				return Token.REFERENCE;
+			}
+			require(h);
+			stringOffset = pos;
+			count = h;
+			pos += h;
+			return Token.BYTE_ARRAY;
+
+		case Array:
+			if((h = readReferenceHeader(start, strings, traits)) == -1) {
+				return Token.REFERENCE;
+			}
+			count = h;
+			push(FRAME_ARRAY_ASSOCIATIVE, h, 0);
+			return Token.START_ARRAY;
+
+		case Object: {
+			int u29 = readU29();
+			if((u29 & 1) == 0) {
+				intValue = u29 >>> 1;
+				checkReference(intValue, type);
+				return Token.REFERENCE;
+			}
+			int trait = readTraitIndex(u29 >>> 1);
+			addReference(start, strings, traits);
+			setString(traitNames[trait]);
+			push(FRAME_OBJECT_SEALED, 0, trait);
+			return Token.START_OBJECT;
+		}
+
+		case Dictionary:
+			if((h = readReferenceHeader(start, strings, traits)) == -1) {
+				return Token.REFERENCE;
+			}
+			count = h;
+			booleanValue = readBoolean();
+			push(FRAME_DICTIONARY, h << 1, 0);
+			return Token.START_DICTIONARY;
+
+		case VectorInt:
+		case VectorUInt:
+		case VectorDouble:
+		case VectorGeneric:
+			if((h = readReferenceHeader(start, strings, traits)) == -1) {
+				return Token.REFERENCE;
+			}
+			count = h;
+			booleanValue = readBoolean();
+			if(type == AmfType.VectorGeneric) {
+				setString(readStringIndex());
+			} else {
+				stringLength = 0;
+				require(h << (type == AmfType.VectorDouble ? 3 : 2));
+			}
+			push(FRAME_VECTOR, h, type.id);
+			return Token.START_VECTOR;
+		}
+
+		throw new UnexpectedDataException(String.format("Unknown Value Type: 0x%x", typeId));
+	}
+
+	private Token readVectorElement(int typeId) throws IOException, UnexpectedDataException {
+		if(typeId == AmfType.VectorDouble.id) {
+			valueType = AmfType.Double;
+			doubleValue = readDouble();
+			return Token.DOUBLE;
+		}
+		if(typeId == AmfType.VectorGeneric.id) {
+			return readValueToken();
+		}
+		valueType = AmfType.Integer;
+		intValue = readInt();
+		return Token.INTEGER;
+	}
+
+	private void setString(int index) {
+		if(index < 0) {
+			stringOffset = 0;
+			stringLength = 0;
+		} else {
+			stringOffset = stringOffsets[index];
+			stringLength = stringLengths[index];
+		}
+	}
+}
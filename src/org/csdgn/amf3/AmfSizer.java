@@ -0,0 +1,566 @@
+/**
+ * Copyright (c) 2017 Robert Maupin
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.csdgn.amf3;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * <p>
+ * Computes the number of bytes an {@link AmfEncoder} would write for an
+ * AmfValue or SOL file, without writing them. The size can be used to
+ * allocate a buffer of exactly the right size, to refuse a message before
+ * encoding it, or for the size in the header of a SOL file.
+ * </p>
+ * 
+ * <p>
+ * {@link #sizeOf(AmfValue)} keeps the same string, trait and reference
+ * tables as the encoder and gives the exact size. {@link #estimate(AmfValue)}
+ * only keeps the reference table, which cyclic graphs need, and counts every
+ * string and trait as if written in full, with three bytes per character. It
+ * is cheaper, and never less than the exact size.
+ * </p>
+ * 
+ * <p>
+ * The data of Externalizables can only be measured by writing it, so their
+ * writeExternal method is called either way. Sizers are not thread safe.
+ * </p>
+ * 
+ * @author Robert Maupin
+ */
+public class AmfSizer {
+	private CountingOutput dataOutput;
+	private boolean exact;
+	private long size;
+	private Map<AmfValue, Integer> referenceTable;
+	private Map<String, Integer> stringTable;
+	private Map<Trait, Integer> traitTable;
+
+	// the stack of containers being measured, see addValue. Each frame is
+	// an iterator or array of the members left to measure, as AmfEncoder
+	// keeps them.
+	private static final int FRAME_DICTIONARY = 0;
+	private static final int FRAME_ENTRIES = 1;
+	private static final int FRAME_SLOTS = 2;
+	private static final int FRAME_VALUES = 3;
+	private int depth;
+	private int[] frameIndex;
+	private Object[] frameIterator;
+	private int[] frameKind;
+	private AmfValue[] frameValue;
+
+	/**
+	 * Creates a new sizer.
+	 */
+	public AmfSizer() {
+		referenceTable = new IdentityHashMap<AmfValue, Integer>();
+		stringTable = new HashMap<String, Integer>();
+		traitTable = new HashMap<Trait, Integer>();
+		frameIndex = new int[8];
+		frameIterator = new Object[8];
+		frameKind = new int[8];
+		frameValue = new AmfValue[8];
+	}
+
+	/**
+	 * Computes an upper bound of the encoded size of the given value.
+	 * 
+	 * @param value
+	 *            the value to measure.
+	 * @return the estimated size in bytes, which is never less than the
+	 *         exact size.
+	 * @throws IOException
+	 *             if an externalizable encountered an I/O error.
+	 */
+	public long estimate(AmfValue value) throws IOException {
+		return measure(value, false);
+	}
+
+	/**
+	 * Computes an upper bound of the encoded size of the given SOL file.
+	 * 
+	 * @param file
+	 *            the file to measure.
+	 * @return the estimated size in bytes, which is never less than the
+	 *         exact size.
+	 * @throws IOException
+	 *             if an externalizable encountered an I/O error.
+	 */
+	public long estimate(AmfFile file) throws IOException {
+		return measure(file, false);
+	}
+
+	/**
+	 * Computes the exact encoded size of the given value.
+	 * 
+	 * @param value
+	 *            the value to measure.
+	 * @return the size in bytes.
+	 * @throws IOException
+	 *             if an externalizable encountered an I/O error.
+	 */
+	public long sizeOf(AmfValue value) throws IOException {
+		return measure(value, true);
+	}
+
+	/**
+	 * Computes the exact encoded size of the given SOL file, including its
+	 * header.
+	 * 
+	 * @param file
+	 *            the file to measure.
+	 * @return the size in bytes.
+	 * @throws IOException
+	 *             if an externalizable encountered an I/O error.
+	 */
+	public long sizeOf(AmfFile file) throws IOException {
+		return measure(file, true);
+	}
+
+	private void addExternal(AmfObject obj) throws IOException {
+		Externalizable ext = obj.getExternalizableObject();
+		if(ext != null) {
+			if(dataOutput == null) {
+				dataOutput = new CountingOutput();
+			}
+			dataOutput.count = 0;
+			ext.writeExternal(dataOutput);
+			size += dataOutput.count;
+		}
+	}
+
+	/**
+	 * Adds the next members of the container on top of the stack, until one
+	 * of them is a container, or pops it if there are no more.
+	 */
+	private void addNext() throws IOException {
+		int d = depth - 1;
+		switch(frameKind[d]) {
+		case FRAME_DICTIONARY: {
+			if(frameIndex[d] != 0) {
+				// the key has been measured, the value is held until then
+				frameIndex[d] = 0;
+				AmfValue next = frameValue[d];
+				frameValue[d] = null;
+				addStart(next);
+				return;
+			}
+			Iterator<?> it = (Iterator<?>) frameIterator[d];
+			if(it.hasNext()) {
+				Map.Entry<?, ?> e = (Map.Entry<?, ?>) it.next();
+				frameIndex[d] = 1;
+				frameValue[d] = (AmfValue) e.getValue();
+				addStart((AmfValue) e.getKey());
+				return;
+			}
+			break;
+		}
+
+		case FRAME_ENTRIES: {
+			Iterator<?> it = (Iterator<?>) frameIterator[d];
+			while(it.hasNext()) {
+				Map.Entry<?, ?> e = (Map.Entry<?, ?>) it.next();
+				addString((String) e.getKey());
+				addStart((AmfValue) e.getValue());
+				if(depth != d + 1) {
+					return;
+				}
+			}
+			break;
+		}
+
+		case FRAME_SLOTS: {
+			AmfValue[] slots = (AmfValue[]) frameIterator[d];
+			while(frameIndex[d] < slots.length) {
+				addStart(slots[frameIndex[d]++]);
+				if(depth != d + 1) {
+					return;
+				}
+			}
+			break;
+		}
+
+		default: {
+			Iterator<?> it = (Iterator<?>) frameIterator[d];
+			while(it.hasNext()) {
+				addStart((AmfValue) it.next());
+				if(depth != d + 1) {
+					return;
+				}
+			}
+			break;
+		}
+		}
+		frameIterator[d] = null;
+		depth = d;
+	}
+
+	/**
+	 * Adds a reference to the given value if it was seen before, or records
+	 * it, see AmfEncoder.writeRef.
+	 * 
+	 * @return true if reference exists, false otherwise.
+	 */
+	private boolean addRef(AmfValue obj) {
+		Integer index = referenceTable.get(obj);
+		if(index != null) {
+			size += AmfEncoder.getU29Size(index << 1);
+			return true;
+		}
+
+		referenceTable.put(obj, referenceTable.size());
+		return false;
+	}
+
+	/**
+	 * Adds the size of the given value, or of its start if it is a container,
+	 * in which case its members are pushed to be measured next.
+	 */
+	private void addStart(AmfValue value) throws IOException {
+		AmfType type = value.getType();
+		// type marker
+		size += 1;
+		switch(type) {
+		case Array: {
+			AmfArray arr = (AmfArray) value;
+			if(!addRef(arr)) {
+				size += AmfEncoder.getU29Size((arr.getDenseSize() << 1) | 1);
+				// the empty string after the associative part
+				size += 1;
+				// the associative part is measured first
+				push(FRAME_VALUES, arr.getDense().iterator());
+				push(FRAME_ENTRIES, arr.getAssociative().entrySet().iterator());
+			}
+			break;
+		}
+		case ByteArray: {
+			AmfByteArray arr = (AmfByteArray) value;
+			if(!addRef(arr)) {
+				size += AmfEncoder.getU29Size((arr.size() << 1) | 1) + arr.size();
+			}
+			break;
+		}
+		case Date:
+			if(!addRef(value)) {
+				size += 1 + 8;
+			}
+			break;
+		case Dictionary: {
+			AmfDictionary dict = (AmfDictionary) value;
+			if(!addRef(dict)) {
+				// count and weak keys flag
+				size += AmfEncoder.getU29Size((dict.size() << 1) | 1) + 1;
+				push(FRAME_DICTIONARY, dict.getMap().entrySet().iterator());
+			}
+			break;
+		}
+		case Double:
+			size += 8;
+			break;
+		case Integer:
+			size += getI29Size(((AmfInteger) value).intValue());
+			break;
+		case Object: {
+			AmfObject obj = (AmfObject) value;
+			if(!addRef(obj)) {
+				addTrait(obj.getTrait());
+				if(obj.isDynamic()) {
+					// the empty string after the dynamic members
+					size += 1;
+					if(obj.getDynamicSize() > 0) {
+						push(FRAME_ENTRIES, obj.getDynamicMap().entrySet().iterator());
+					}
+				}
+				// the sealed members are measured first
+				AmfValue[] slots = obj.getSlots();
+				if(slots != null) {
+					push(FRAME_SLOTS, slots);
+				} else {
+					push(FRAME_VALUES, obj.getSealedMap().values().iterator());
+				}
+				if(obj.isExternalizable()) {
+					addExternal(obj);
+				}
+			}
+			break;
+		}
+		case String:
+			addString(((AmfString) value).getValue());
+			break;
+		case VectorDouble:
+			addVector((AmfVector<?>) value, 8);
+			break;
+		case VectorGeneric: {
+			AmfVector.Generic vec = (AmfVector.Generic) value;
+			if(addVector(vec, 0)) {
+				addString(vec.getTypeName());
+				push(FRAME_VALUES, vec.iterator());
+			}
+			break;
+		}
+		case VectorInt:
+		case VectorUInt:
+			addVector((AmfVector<?>) value, 4);
+			break;
+		case Xml:
+		case XmlDoc:
+			if(!addRef(value)) {
+				addPlainString(((AmfXml) value).getValue());
+			}
+			break;
+		default:
+			// null, false, true and undefined have nothing more
+			break;
+		}
+	}
+
+	private void addPlainString(String str) {
+		if(exact) {
+			int length = AmfUTF8.length(str);
+			size += AmfEncoder.getU29Size((length << 1) | 1) + length;
+		} else {
+			size += 4 + 3L * str.length();
+		}
+	}
+
+	private void addString(String str) {
+		if(str.length() == 0) {
+			// empty string
+			size += 1;
+			return;
+		}
+		if(exact) {
+			Integer index = stringTable.get(str);
+			if(index != null) {
+				// reference
+				size += AmfEncoder.getU29Size(index << 1);
+				return;
+			}
+			stringTable.put(str, stringTable.size());
+		}
+		addPlainString(str);
+	}
+
+	private void addTrait(Trait trait) {
+		if(exact) {
+			Integer ref = traitTable.get(trait);
+			if(ref != null) {
+				size += AmfEncoder.getU29Size((ref << 2) | 1);
+				return;
+			}
+			traitTable.put(trait, traitTable.size());
+			size += AmfEncoder.getU29Size((trait.getProperties().size() << 4) | 3);
+		} else {
+			size += 4;
+		}
+		addString(trait.getName());
+		for(String name : trait.getProperties()) {
+			addString(name);
+		}
+	}
+
+	/**
+	 * Adds the size of the given vector, with elements of the given size.
+	 * 
+	 * @return true if the vector is not a reference, false otherwise.
+	 */
+	private boolean addVector(AmfVector<?> vec, int elementSize) {
+		if(addRef(vec)) {
+			return false;
+		}
+		// count, fixed length flag and elements
+		size += AmfEncoder.getU29Size((vec.size() << 1) | 1) + 1 + (long) vec.size() * elementSize;
+		return true;
+	}
+
+	/**
+	 * Adds the size of the given value. Containers are measured with a stack
+	 * of frames rather than by recursion, as AmfEncoder writes them.
+	 */
+	private void addValue(AmfValue value) throws IOException {
+		int base = depth;
+		addStart(value);
+		while(depth > base) {
+			addNext();
+		}
+	}
+
+	private void clearTables() {
+		referenceTable.clear();
+		stringTable.clear();
+		traitTable.clear();
+		while(depth > 0) {
+			--depth;
+			frameIterator[depth] = null;
+			frameValue[depth] = null;
+		}
+	}
+
+	private static int getI29Size(int value) {
+		final int upperExclusiveBound = 1 << 29;
+		if(value < 0) {
+			// -x is stored as 2^29 - x
+			return AmfEncoder.getU29Size(value + upperExclusiveBound);
+		}
+		return AmfEncoder.getU29Size(value);
+	}
+
+	private long measure(Object value, boolean exact) throws IOException {
+		this.exact = exact;
+		size = 0;
+		try {
+			if(value instanceof AmfFile) {
+				AmfFile file = (AmfFile) value;
+				// BOM, size, magic, unknown, name and version, see
+				// AmfEncoder.writeFileHeader
+				size += 2 + 4 + 4 + 6 + 2 + file.getName().getBytes(StandardCharsets.US_ASCII).length + 4;
+				for(Map.Entry<String, AmfValue> e : file.entrySet()) {
+					addString(e.getKey());
+					addValue(e.getValue());
+					// trailing zero
+					size += 1;
+				}
+			} else {
+				addValue((AmfValue) value);
+			}
+		} finally {
+			clearTables();
+		}
+		return size;
+	}
+
+	/**
+	 * Pushes a frame of the given kind for the given iterator or array.
+	 */
+	private void push(int kind, Object iterator) {
+		if(depth == frameKind.length) {
+			frameIndex = Arrays.copyOf(frameIndex, depth << 1);
+			frameIterator = Arrays.copyOf(frameIterator, depth << 1);
+			frameKind = Arrays.copyOf(frameKind, depth << 1);
+			frameValue = Arrays.copyOf(frameValue, depth << 1);
+		}
+		frameIndex[depth] = 0;
+		frameIterator[depth] = iterator;
+		frameKind[depth++] = kind;
+	}
+
+	/**
+	 * Counts the bytes written by an Externalizable, as AmfEncoder would
+	 * write them.
+	 */
+	private static class CountingOutput implements DataOutput {
+		private long count;
+
+		@Override
+		public void write(byte[] b) {
+			count += b.length;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			count += len;
+		}
+
+		@Override
+		public void write(int b) {
+			count += 1;
+		}
+
+		@Override
+		public void writeBoolean(boolean v) {
+			count += 1;
+		}
+
+		@Override
+		public void writeByte(int v) {
+			count += 1;
+		}
+
+		@Override
+		public void writeBytes(String s) {
+			count += s.length();
+		}
+
+		@Override
+		public void writeChar(int v) {
+			count += 2;
+		}
+
+		@Override
+		public void writeChars(String s) {
+			count += 2L * s.length();
+		}
+
+		@Override
+		public void writeDouble(double v) {
+			count += 8;
+		}
+
+		@Override
+		public void writeFloat(float v) {
+			count += 4;
+		}
+
+		@Override
+		public void writeInt(int v) {
+			count += 4;
+		}
+
+		@Override
+		public void writeLong(long v) {
+			count += 8;
+		}
+
+		@Override
+		public void writeShort(int v) {
+			count += 2;
+		}
+
+		@Override
+		public void writeUTF(String s) throws IOException {
+			// modified UTF-8, as DataOutputStream writes it
+			int length = s.length();
+			int utflen = 0;
+			for(int i = 0; i < length; ++i) {
+				char c = s.charAt(i);
+				if(c >= 0x0001 && c <= 0x007F) {
+					utflen += 1;
+				} else if(c > 0x07FF) {
+					utflen += 3;
+				} else {
+					utflen += 2;
+				}
+			}
+			if(utflen > 65535) {
+				throw new UTFDataFormatException("encoded string too long: " + utflen + " bytes");
+			}
+			count += 2 + utflen;
+		}
+	}
+}
@@ -0,0 +1,247 @@
+/**
+ * Copyright (c) 2017 Robert Maupin
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.csdgn.amf3;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The sealed map of an object whose properties are those of a trait. The keys
+ * are taken from the trait, which is shared by every object of that trait,
+ * and the values are kept in an array in trait order. Getting and replacing
+ * values works on the array. Adding or removing keys copies the members into
+ * a LinkedHashMap, and from then on the map behaves as one.
+ * 
+ * @author Robert Maupin
+ * @see SimpleTrait#indexOf(String)
+ */
+class AmfSlotMap extends AbstractMap<String, AmfValue> {
+	private Map<String, AmfValue> map;
+	private SimpleTrait shape;
+	private AmfValue[] values;
+
+	AmfSlotMap(SimpleTrait shape) {
+		this.shape = shape;
+		this.values = new AmfValue[shape.getProperties().size()];
+	}
+
+	/**
+	 * Clears the map and sets the trait the keys are taken from, keeping the
+	 * value array if it is the right size. Used by {@link AmfValuePool}.
+	 */
+	void reset(SimpleTrait shape) {
+		int size = shape.getProperties().size();
+		if(values == null || values.length != size) {
+			values = new AmfValue[size];
+		} else {
+			Arrays.fill(values, null);
+		}
+		this.shape = shape;
+		map = null;
+	}
+
+	/**
+	 * Gets the trait the keys are taken from, or null if the map is no longer
+	 * backed by one.
+	 */
+	SimpleTrait getShape() {
+		return shape;
+	}
+
+	/**
+	 * Gets the values in trait order, or null if the map is no longer backed
+	 * by a trait. Changes to the array are changes to the map.
+	 */
+	AmfValue[] getSlots() {
+		return values;
+	}
+
+	@Override
+	public void clear() {
+		materialize().clear();
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		if(map != null) {
+			return map.containsKey(key);
+		}
+		return key instanceof String && shape.indexOf((String) key) != -1;
+	}
+
+	@Override
+	public Set<Map.Entry<String, AmfValue>> entrySet() {
+		if(map != null) {
+			return map.entrySet();
+		}
+		return new AbstractSet<Map.Entry<String, AmfValue>>() {
+			@Override
+			public Iterator<Map.Entry<String, AmfValue>> iterator() {
+				if(map != null) {
+					return map.entrySet().iterator();
+				}
+				return new SlotIterator();
+			}
+
+			@Override
+			public int size() {
+				return AmfSlotMap.this.size();
+			}
+		};
+	}
+
+	@Override
+	public AmfValue get(Object key) {
+		if(map != null) {
+			return map.get(key);
+		}
+		if(!(key instanceof String)) {
+			return null;
+		}
+		int i = shape.indexOf((String) key);
+		return i == -1 ? null : values[i];
+	}
+
+	/**
+	 * Copies the members into a LinkedHashMap, after which the trait is no
+	 * longer used.
+	 */
+	private Map<String, AmfValue> materialize() {
+		if(map == null) {
+			Map<String, AmfValue> result = new LinkedHashMap<String, AmfValue>();
+			for(int i = 0; i < values.length; ++i) {
+				result.put(shape.getProperties().get(i), values[i]);
+			}
+			map = result;
+			shape = null;
+			values = null;
+		}
+		return map;
+	}
+
+	@Override
+	public AmfValue put(String key, AmfValue value) {
+		if(map == null) {
+			int i = shape.indexOf(key);
+			if(i != -1) {
+				AmfValue old = values[i];
+				values[i] = value;
+				return old;
+			}
+		}
+		return materialize().put(key, value);
+	}
+
+	@Override
+	public AmfValue remove(Object key) {
+		if(map == null && !containsKey(key)) {
+			return null;
+		}
+		return materialize().remove(key);
+	}
+
+	@Override
+	public int size() {
+		if(map != null) {
+			return map.size();
+		}
+		return values.length;
+	}
+
+	private class SlotIterator implements Iterator<Map.Entry<String, AmfValue>> {
+		private final SimpleTrait keys = shape;
+		private int next;
+		private Slot last;
+
+		@Override
+		public boolean hasNext() {
+			return next < keys.getProperties().size();
+		}
+
+		@Override
+		public Map.Entry<String, AmfValue> next() {
+			if(!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			last = new Slot(keys.getProperties().get(next), next);
+			++next;
+			return last;
+		}
+
+		@Override
+		public void remove() {
+			if(last == null) {
+				throw new IllegalStateException();
+			}
+			materialize().remove(last.getKey());
+			last = null;
+		}
+	}
+
+	private class Slot implements Map.Entry<String, AmfValue> {
+		private final String key;
+		private final int index;
+
+		Slot(String key, int index) {
+			this.key = key;
+			this.index = index;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(!(obj instanceof Map.Entry)) {
+				return false;
+			}
+			Map.Entry<?, ?> entry = (Map.Entry<?, ?>) obj;
+			AmfValue value = getValue();
+			return key.equals(entry.getKey())
+					&& (value == null ? entry.getValue() == null : value.equals(entry.getValue()));
+		}
+
+		@Override
+		public String getKey() {
+			return key;
+		}
+
+		@Override
+		public AmfValue getValue() {
+			return map == null ? values[index] : map.get(key);
+		}
+
+		@Override
+		public int hashCode() {
+			AmfValue value = getValue();
+			return key.hashCode() ^ (value == null ? 0 : value.hashCode());
+		}
+
+		@Override
+		public AmfValue setValue(AmfValue value) {
+			return put(key, value);
+		}
+	}
+}
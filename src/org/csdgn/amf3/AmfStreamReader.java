@@ -0,0 +1,265 @@
+/**
+ * Copyright (c) 2017 Robert Maupin
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.csdgn.amf3;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * <p>
+ * Reads a sequence of back to back AMF3 messages from an input stream, such
+ * as a socket or a log file. Each message is a single AmfValue, and the
+ * string, trait and reference tables are cleared between messages. The read
+ * buffer and the table arrays are reused for every message. The input stream
+ * is only closed by {@link #close()}.
+ * </p>
+ * 
+ * <p>
+ * Without framing, messages are decoded as the data arrives and end where
+ * their value ends. With length-prefixed framing each message is preceded by
+ * its length as a four byte big-endian unsigned integer, and the whole
+ * message is read before it is decoded.
+ * </p>
+ * 
+ * <p>
+ * The {@link Iterator} methods wrap I/O errors in an
+ * {@link UncheckedIOException}, and invalid data in an
+ * {@link IllegalStateException}. Use {@link #read()} to get the checked
+ * exceptions instead. This class is not thread safe.
+ * </p>
+ * 
+ * @author Robert Maupin
+ */
+public class AmfStreamReader implements Iterator<AmfValue>, Closeable {
+	private byte[] buffer;
+	private AmfDecoder decoder;
+	private InputStream input;
+	private AmfValue next;
+	private AmfPushDecoder pushDecoder;
+	private ByteBuffer view;
+
+	/**
+	 * Creates a reader of unframed messages from the given input stream.
+	 * 
+	 * @param input
+	 *            The input stream to read from.
+	 * @param ext
+	 *            The ExternalizableFactorys to use, if any.
+	 */
+	public AmfStreamReader(InputStream input, ExternalizableFactory... ext) {
+		this(input, false, ext);
+	}
+
+	/**
+	 * Creates a reader of messages from the given input stream.
+	 * 
+	 * @param input
+	 *            The input stream to read from.
+	 * @param lengthPrefixed
+	 *            true if each message is preceded by its length as a four byte
+	 *            big-endian unsigned integer, false otherwise.
+	 * @param ext
+	 *            The ExternalizableFactorys to use, if any.
+	 */
+	public AmfStreamReader(InputStream input, boolean lengthPrefixed, ExternalizableFactory... ext) {
+		this.input = input;
+		buffer = new byte[8192];
+		view = ByteBuffer.wrap(buffer);
+		view.limit(0);
+		if(lengthPrefixed) {
+			decoder = new AmfDecoder(ext);
+		} else {
+			pushDecoder = new AmfPushDecoder(ext);
+		}
+	}
+
+	/**
+	 * Closes the underlying input stream.
+	 * 
+	 * @throws IOException
+	 *             if an I/O error occurs.
+	 */
+	@Override
+	public void close() throws IOException {
+		input.close();
+	}
+
+	/**
+	 * Sets the limits checked while decoding, or null for no limits. With
+	 * length-prefixed framing a message longer than the maximum total bytes
+	 * is refused before it is buffered. See {@link DecodeLimits}.
+	 * 
+	 * @param limits
+	 *            the limits to use, may be null.
+	 */
+	public void setDecodeLimits(DecodeLimits limits) {
+		if(decoder != null) {
+			decoder.setDecodeLimits(limits);
+		} else {
+			pushDecoder.setDecodeLimits(limits);
+		}
+	}
+
+	/**
+	 * Reads more data until at least the given number of bytes are buffered.
+	 * 
+	 * @return false if the end of the stream was reached first.
+	 */
+	private boolean fill(int length) throws IOException {
+		if(view.remaining() >= length) {
+			return true;
+		}
+		if(length > buffer.length) {
+			byte[] array = Arrays.copyOf(buffer, Math.max(length, buffer.length << 1));
+			int position = view.position();
+			int limit = view.limit();
+			buffer = array;
+			view = ByteBuffer.wrap(buffer, position, limit - position);
+		}
+		view.compact();
+		try {
+			while(view.position() < length) {
+				int read = input.read(buffer, view.position(), view.remaining());
+				if(read < 0) {
+					return false;
+				}
+				view.position(view.position() + read);
+			}
+		} finally {
+			view.flip();
+		}
+		return true;
+	}
+
+	/**
+	 * Returns true if there is another message in the stream. This blocks
+	 * until the message is read, or the end of the stream is reached.
+	 * 
+	 * @return true if there is another message.
+	 */
+	@Override
+	public boolean hasNext() {
+		if(next == null) {
+			try {
+				next = read();
+			} catch(IOException e) {
+				throw new UncheckedIOException(e);
+			} catch(UnexpectedDataException e) {
+				throw new IllegalStateException(e.getMessage(), e);
+			}
+		}
+		return next != null;
+	}
+
+	/**
+	 * Returns the next message in the stream.
+	 * 
+	 * @return the value of the next message.
+	 * @throws NoSuchElementException
+	 *             if the end of the stream has been reached.
+	 */
+	@Override
+	public AmfValue next() {
+		if(!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		AmfValue value = next;
+		next = null;
+		return value;
+	}
+
+	/**
+	 * Reads the next message in the stream. This blocks until the message is
+	 * read, or the end of the stream is reached.
+	 * 
+	 * @return the value of the next message, or null at the end of the
+	 *         stream.
+	 * @throws IOException
+	 *             if the program encountered an I/O error during reading.
+	 * @throws UnexpectedDataException
+	 *             if invalid data was found, or the stream ended in the middle
+	 *             of a message.
+	 */
+	public AmfValue read() throws IOException, UnexpectedDataException {
+		if(next != null) {
+			AmfValue value = next;
+			next = null;
+			return value;
+		}
+		if(decoder != null) {
+			return readFramed();
+		}
+		while(true) {
+			if(view.hasRemaining()) {
+				AmfValue value = pushDecoder.feed(view);
+				if(value != AmfPushDecoder.NEED_MORE_INPUT) {
+					return value;
+				}
+			}
+			// the push decoder used everything that was buffered
+			int read = input.read(buffer);
+			if(read < 0) {
+				if(pushDecoder.isPartial()) {
+					pushDecoder.reset();
+					throw new UnexpectedDataException("Unexpected end of data.");
+				}
+				return null;
+			}
+			view.clear();
+			view.limit(read);
+		}
+	}
+
+	private AmfValue readFramed() throws IOException, UnexpectedDataException {
+		if(!fill(4)) {
+			if(view.hasRemaining()) {
+				throw new UnexpectedDataException("Unexpected end of data.");
+			}
+			return null;
+		}
+		long length = view.getInt() & 0xFFFFFFFFL;
+		if(length > Integer.MAX_VALUE - 8) {
+			throw new UnexpectedDataException("Wrong message length");
+		}
+		if(length > decoder.maxTotalBytes) {
+			throw DecodeLimits.exceeded("total bytes", decoder.maxTotalBytes);
+		}
+		if(!fill((int) length)) {
+			throw new UnexpectedDataException("Unexpected end of data.");
+		}
+		int end = view.position() + (int) length;
+		ByteBuffer message = view.duplicate();
+		message.limit(end);
+		view.position(end);
+		AmfValue value = decoder.decode(message);
+		if(message.hasRemaining()) {
+			throw new UnexpectedDataException("Wrong message length");
+		}
+		return value;
+	}
+}
@@ -27,11 +27,37 @@ package org.csdgn.amf3;
  * @author Robert Maupin
  */
 public class AmfString extends AmfPrimitive<String> {
+	/**
+	 * A shared empty AmfString, which cannot be modified.
+	 */
+	public static final AmfString EMPTY = new Constant("");
+
+	private static final class Constant extends AmfString {
+		Constant(String value) {
+			super(value);
+		}
+
+		@Override
+		public void setValue(String value) {
+			throw new UnsupportedOperationException("This AmfString is shared and cannot be modified.");
+		}
+	}
+
+	/**
+	 * Creates an AmfString of the given value which cannot be modified, so it
+	 * can be shared.
+	 */
+	static AmfString constant(String value) {
+		return new Constant(value);
+	}
+
+	private String value;
+
 	/**
 	 * Defines an empty AmfString with zero length.
 	 */
 	public AmfString() {
-		super("");
+		value = "";
 	}
 	
 	/**
@@ -39,7 +65,8 @@ public class AmfString extends AmfPrimitive<String> {
 	 * @param value The string value.
 	 */
 	public AmfString(String value) {
-		super(value);
+		checkValue(value);
+		this.value = value;
 	}
 	
 	@Override
@@ -56,6 +83,17 @@ public class AmfString extends AmfPrimitive<String> {
 		}
 		return false;
 	}
+
+	@Override
+	public String getValue() {
+		return value;
+	}
+
+	@Override
+	public void setValue(String value) {
+		checkValue(value);
+		this.value = value;
+	}
 	
 	@Override
 	public String toString() {
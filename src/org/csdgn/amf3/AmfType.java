@@ -71,6 +71,19 @@ public enum AmfType {
 	 */
 	public final int id;
 
+	/**
+	 * Lookup table from type marker to type, indexed by {@link #id}.
+	 */
+	private static final AmfType[] markers;
+
+	static {
+		AmfType[] types = values();
+		markers = new AmfType[types[types.length - 1].id + 1];
+		for(AmfType type : types) {
+			markers[type.id] = type;
+		}
+	}
+
 	private AmfType(int id) {
 		this.id = id;
 	}
@@ -84,11 +97,9 @@ public enum AmfType {
 	 *         associated type.
 	 */
 	public static AmfType get(int id) {
-		for(AmfType type : values()) {
-			if(type.id == id) {
-				return type;
-			}
+		if(id < 0 || id >= markers.length) {
+			return null;
 		}
-		return null;
+		return markers[id];
 	}
 }
@@ -0,0 +1,140 @@
+/**
+ * Copyright (c) 2017 Robert Maupin
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.csdgn.amf3;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes and decodes the UTF-8 of AMF3 strings directly to and from byte
+ * buffers, so no array is made for the bytes of each string. Strings are
+ * encoded as String.getBytes encodes them, with a '?' for each unpaired
+ * surrogate. Strings are decoded by the JDK straight from the array of the
+ * buffer, which already makes ASCII and Latin-1 strings in a single pass.
+ * 
+ * @author Robert Maupin
+ */
+class AmfUTF8 {
+	/**
+	 * Reads a string of the given number of bytes from the position of the
+	 * given buffer, advancing it. Buffers without an array are copied into
+	 * the given scratch array first, which must hold that many bytes.
+	 */
+	static String decode(ByteBuffer src, int length, byte[] scratch) {
+		int pos = src.position();
+		if(src.hasArray()) {
+			String str = new String(src.array(), src.arrayOffset() + pos, length, StandardCharsets.UTF_8);
+			src.position(pos + length);
+			return str;
+		}
+		src.get(scratch, 0, length);
+		return new String(scratch, 0, length, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Writes the given string as UTF-8 at the given position of the given
+	 * buffer, which must have room for all of it.
+	 * 
+	 * @return the position after the string.
+	 * @see #length(String)
+	 */
+	static int encode(String str, ByteBuffer dst, int pos) {
+		int length = str.length();
+		for(int i = 0; i < length; ++i) {
+			char c = str.charAt(i);
+			if(c < 0x80) {
+				dst.put(pos++, (byte) c);
+			} else if(c < 0x800) {
+				dst.put(pos++, (byte) (0xC0 | (c >> 6)));
+				dst.put(pos++, (byte) (0x80 | (c & 0x3F)));
+			} else if(Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(str.charAt(i + 1))) {
+				int cp = Character.toCodePoint(c, str.charAt(++i));
+				dst.put(pos++, (byte) (0xF0 | (cp >> 18)));
+				dst.put(pos++, (byte) (0x80 | ((cp >> 12) & 0x3F)));
+				dst.put(pos++, (byte) (0x80 | ((cp >> 6) & 0x3F)));
+				dst.put(pos++, (byte) (0x80 | (cp & 0x3F)));
+			} else if(Character.isSurrogate(c)) {
+				dst.put(pos++, (byte) '?');
+			} else {
+				dst.put(pos++, (byte) (0xE0 | (c >> 12)));
+				dst.put(pos++, (byte) (0x80 | ((c >> 6) & 0x3F)));
+				dst.put(pos++, (byte) (0x80 | (c & 0x3F)));
+			}
+		}
+		return pos;
+	}
+
+	/**
+	 * Writes the leading ASCII characters of the given string at the given
+	 * position of the given buffer, which must have room for the whole
+	 * string. Stops at the first character that is not ASCII.
+	 * 
+	 * @return the number of characters written.
+	 */
+	static int encodeASCII(String str, ByteBuffer dst, int pos) {
+		int length = str.length();
+		if(dst.hasArray()) {
+			byte[] data = dst.array();
+			int offset = dst.arrayOffset() + pos;
+			for(int i = 0; i < length; ++i) {
+				char c = str.charAt(i);
+				if(c >= 0x80) {
+					return i;
+				}
+				data[offset + i] = (byte) c;
+			}
+		} else {
+			for(int i = 0; i < length; ++i) {
+				char c = str.charAt(i);
+				if(c >= 0x80) {
+					return i;
+				}
+				dst.put(pos + i, (byte) c);
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * Gets the number of bytes the given string takes in UTF-8.
+	 */
+	static int length(String str) {
+		int length = str.length();
+		int utflen = length;
+		for(int i = 0; i < length; ++i) {
+			char c = str.charAt(i);
+			if(c < 0x80) {
+				continue;
+			}
+			if(c < 0x800) {
+				utflen += 1;
+			} else if(Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(str.charAt(i + 1))) {
+				// four bytes for the pair
+				utflen += 2;
+				++i;
+			} else if(!Character.isSurrogate(c)) {
+				utflen += 2;
+			}
+		}
+		return utflen;
+	}
+}
@@ -27,6 +27,11 @@ package org.csdgn.amf3;
  *
  */
 public class AmfUndefined extends AmfValue {
+	/**
+	 * A shared AmfUndefined, which can be used anywhere as AmfUndefined has
+	 * no state.
+	 */
+	public static final AmfUndefined UNDEFINED = new AmfUndefined();
 
 	@Override
 	public AmfType getType() {
@@ -31,8 +31,9 @@ package org.csdgn.amf3;
 public abstract class AmfValue {
 	/**
 	 * This determines if the given AmfValue equals another AmfValue exactly.
-	 * The identities of the two objects do not need to match. This method is
-	 * used in building the string and object reference tables.
+	 * The identities of the two objects do not need to match. The object
+	 * reference tables of AmfEncoder and AmfSizer are keyed by identity, so
+	 * equal values that are different objects are written twice.
 	 * 
 	 * @param value
 	 *            The value to check this values equality against.
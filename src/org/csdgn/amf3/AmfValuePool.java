@@ -0,0 +1,200 @@
+/**
+ * Copyright (c) 2017 Robert Maupin
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.csdgn.amf3;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A pool of values for {@link AmfDecoder#decodeInto(byte[], AmfValuePool)}.
+ * The pool hands out objects, arrays, integers, doubles, strings, byte arrays
+ * and numeric vectors, and keeps every value it hands out. Calling
+ * {@link #release()} makes all of them available to be decoded into again, so
+ * once the pool has grown to the size of the messages decoded, decoding those
+ * values allocates nothing.
+ * <p>
+ * Values from the pool must not be used after the pool is released. A pool is
+ * not thread safe and should be used by one decoder at a time.
+ * </p>
+ * 
+ * @author Robert Maupin
+ */
+public class AmfValuePool {
+	/**
+	 * The values of one type, in the order they were handed out.
+	 */
+	private static final class Slab<T> {
+		final List<T> values = new ArrayList<T>();
+		int used;
+
+		T next() {
+			if(used < values.size()) {
+				return values.get(used++);
+			}
+			return null;
+		}
+
+		T add(T value) {
+			values.add(value);
+			++used;
+			return value;
+		}
+	}
+
+	private final Slab<AmfArray> arrays = new Slab<AmfArray>();
+	private final Slab<AmfByteArray> byteArrays = new Slab<AmfByteArray>();
+	private final Slab<AmfDouble> doubles = new Slab<AmfDouble>();
+	private final Slab<AmfInteger> integers = new Slab<AmfInteger>();
+	private final Slab<AmfObject> objects = new Slab<AmfObject>();
+	private final Slab<AmfString> strings = new Slab<AmfString>();
+	private final Slab<AmfVector.Double> vectorDoubles = new Slab<AmfVector.Double>();
+	private final Slab<AmfVector.Integer> vectorInts = new Slab<AmfVector.Integer>();
+	private final Slab<AmfVector.UnsignedInteger> vectorUInts = new Slab<AmfVector.UnsignedInteger>();
+
+	/**
+	 * Makes every value handed out by this pool available again. The values
+	 * are cleared when they are next handed out, and must not be used by the
+	 * caller any more.
+	 */
+	public void release() {
+		arrays.used = 0;
+		byteArrays.used = 0;
+		doubles.used = 0;
+		integers.used = 0;
+		objects.used = 0;
+		strings.used = 0;
+		vectorDoubles.used = 0;
+		vectorInts.used = 0;
+		vectorUInts.used = 0;
+	}
+
+	/**
+	 * Drops every value held by this pool, releasing their memory.
+	 */
+	public void clear() {
+		release();
+		arrays.values.clear();
+		byteArrays.values.clear();
+		doubles.values.clear();
+		integers.values.clear();
+		objects.values.clear();
+		strings.values.clear();
+		vectorDoubles.values.clear();
+		vectorInts.values.clear();
+		vectorUInts.values.clear();
+	}
+
+	/**
+	 * Gets the number of values this pool has handed out since it was last
+	 * released.
+	 * 
+	 * @return the number of values in use.
+	 */
+	public int getUsed() {
+		return arrays.used + byteArrays.used + doubles.used + integers.used + objects.used + strings.used
+				+ vectorDoubles.used + vectorInts.used + vectorUInts.used;
+	}
+
+	AmfArray takeArray() {
+		AmfArray value = arrays.next();
+		if(value == null) {
+			return arrays.add(new AmfArray());
+		}
+		value.clear();
+		return value;
+	}
+
+	AmfByteArray takeByteArray() {
+		AmfByteArray value = byteArrays.next();
+		if(value == null) {
+			return byteArrays.add(new AmfByteArray());
+		}
+		value.clear();
+		return value;
+	}
+
+	AmfDouble takeDouble(double d) {
+		AmfDouble value = doubles.next();
+		if(value == null) {
+			return doubles.add(new AmfDouble(d));
+		}
+		value.setValue(d);
+		return value;
+	}
+
+	AmfInteger takeInteger(int i) {
+		AmfInteger value = integers.next();
+		if(value == null) {
+			return integers.add(new AmfInteger(i));
+		}
+		value.setValue(i);
+		return value;
+	}
+
+	AmfObject takeObject(SimpleTrait shape) {
+		AmfObject value = objects.next();
+		if(value == null) {
+			return objects.add(new AmfObject(shape));
+		}
+		value.recycle(shape);
+		return value;
+	}
+
+	/**
+	 * Gets a string whose value is set by the caller, it still holds its
+	 * previous value so the caller can keep it if it is the same.
+	 */
+	AmfString takeString() {
+		AmfString value = strings.next();
+		if(value == null) {
+			return strings.add(new AmfString());
+		}
+		return value;
+	}
+
+	AmfVector.Double takeVectorDouble() {
+		AmfVector.Double value = vectorDoubles.next();
+		if(value == null) {
+			return vectorDoubles.add(new AmfVector.Double());
+		}
+		value.recycle();
+		return value;
+	}
+
+	AmfVector.Integer takeVectorInt() {
+		AmfVector.Integer value = vectorInts.next();
+		if(value == null) {
+			return vectorInts.add(new AmfVector.Integer());
+		}
+		value.recycle();
+		return value;
+	}
+
+	AmfVector.UnsignedInteger takeVectorUInt() {
+		AmfVector.UnsignedInteger value = vectorUInts.next();
+		if(value == null) {
+			return vectorUInts.add(new AmfVector.UnsignedInteger());
+		}
+		value.recycle();
+		return value;
+	}
+}
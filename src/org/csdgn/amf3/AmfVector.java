@@ -21,6 +21,8 @@
  */
 package org.csdgn.amf3;
 
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
@@ -46,21 +48,143 @@ public abstract class AmfVector<E> extends AmfValue implements List<E> {
 	 * @see AmfVector
 	 */
 	public static class Double extends AmfVector<AmfDouble> {
+		private final AmfDoubleList values;
+
+		/**
+		 * Constructs an empty, non-fixed length vector.
+		 */
+		public Double() {
+			this(new AmfDoubleList());
+		}
+
+		/**
+		 * Constructs a non-fixed length vector holding a copy of the given
+		 * values.
+		 * 
+		 * @param values
+		 *            the values of the vector.
+		 */
+		public Double(double[] values) {
+			this(new AmfDoubleList(values.clone(), values.length));
+		}
+
+		private Double(AmfDoubleList values) {
+			super(values);
+			this.values = values;
+		}
+
+		/**
+		 * Constructs a vector that takes ownership of the given array, used by
+		 * the decoders.
+		 */
+		static Double wrap(double[] data, int size) {
+			return new Double(new AmfDoubleList(data, size));
+		}
+
+		/**
+		 * Sets the size of this vector to the given count, and returns the
+		 * backing array for the caller to fill. Used by the decoders.
+		 */
+		double[] prepare(int count) {
+			values.clear();
+			values.ensureCapacity(count);
+			values.size = count;
+			return values.data;
+		}
+
+		/**
+		 * Appends the specified value to the end of this vector, see
+		 * {@link #add(Object)}.
+		 * 
+		 * @param value
+		 *            The value to add.
+		 */
+		public void add(double value) {
+			checkCapacity(1);
+			values.addDouble(value);
+		}
+
+		/**
+		 * Gets a buffer over the values of this vector, which reads and writes
+		 * them directly. The buffer is only valid until elements are added to
+		 * or removed from this vector.
+		 * 
+		 * @return a buffer holding the values of this vector.
+		 */
+		public DoubleBuffer asDoubleBuffer() {
+			return DoubleBuffer.wrap(values.data, 0, values.size).slice();
+		}
+
+		@Override
+		public boolean equals(AmfValue value) {
+			if(value instanceof Double && value.getType() == getType()) {
+				AmfDoubleList other = ((Double) value).values;
+				if(other.size != values.size || ((Double) value).isFixedLength() != isFixedLength()) {
+					return false;
+				}
+				// compared as AmfDouble does
+				for(int i = 0; i < values.size; ++i) {
+					if(java.lang.Double.doubleToLongBits(other.data[i]) != java.lang.Double
+							.doubleToLongBits(values.data[i])) {
+						return false;
+					}
+				}
+				return true;
+			}
+			return super.equals(value);
+		}
+
+		/**
+		 * Gets the value at the given index without boxing it.
+		 * 
+		 * @param index
+		 *            the index of the value.
+		 * @return the value.
+		 * @throws IndexOutOfBoundsException
+		 *             if the index is out of range.
+		 */
+		public double getDouble(int index) {
+			return values.getDouble(index);
+		}
+
 		@Override
 		public AmfType getType() {
 			return AmfType.VectorDouble;
 		}
+
+		/**
+		 * Sets the value at the given index.
+		 * 
+		 * @param index
+		 *            the index of the value.
+		 * @param value
+		 *            the value to set.
+		 * @throws IndexOutOfBoundsException
+		 *             if the index is out of range.
+		 */
+		public void setDouble(int index, double value) {
+			values.setDouble(index, value);
+		}
+
+		/**
+		 * Gets a copy of the values of this vector.
+		 * 
+		 * @return an array of the values.
+		 */
+		public double[] toDoubleArray() {
+			return values.toDoubleArray();
+		}
 		
 		@Override
 		public String toString() {
 			StringBuilder buf = new StringBuilder();
 			buf.append("VectorDouble{");
 			boolean first = true;
-			for(AmfDouble val : this) {
+			for(int i = 0; i < values.size; ++i) {
 				if(!first) {
 					buf.append(",");
 				}
-				buf.append(val.getValue());
+				buf.append(values.data[i]);
 			}
 			buf.append("}");
 			return buf.toString();
@@ -120,21 +244,133 @@ public abstract class AmfVector<E> extends AmfValue implements List<E> {
 	 * @see AmfVector
 	 */
 	public static class Integer extends AmfVector<AmfInteger> {
+		private final AmfIntList values;
+
+		/**
+		 * Constructs an empty, non-fixed length vector.
+		 */
+		public Integer() {
+			this(new AmfIntList());
+		}
+
+		/**
+		 * Constructs a non-fixed length vector holding a copy of the given
+		 * values.
+		 * 
+		 * @param values
+		 *            the values of the vector.
+		 */
+		public Integer(int[] values) {
+			this(new AmfIntList(values.clone(), values.length));
+		}
+
+		private Integer(AmfIntList values) {
+			super(values);
+			this.values = values;
+		}
+
+		/**
+		 * Constructs a vector that takes ownership of the given array, used by
+		 * the decoders.
+		 */
+		static Integer wrap(int[] data, int size) {
+			return new Integer(new AmfIntList(data, size));
+		}
+
+		/**
+		 * Sets the size of this vector to the given count, and returns the
+		 * backing array for the caller to fill. Used by the decoders.
+		 */
+		int[] prepare(int count) {
+			values.clear();
+			values.ensureCapacity(count);
+			values.size = count;
+			return values.data;
+		}
+
+		/**
+		 * Appends the specified value to the end of this vector, see
+		 * {@link #add(Object)}.
+		 * 
+		 * @param value
+		 *            The value to add.
+		 */
+		public void add(int value) {
+			checkCapacity(1);
+			values.addInt(value);
+		}
+
+		/**
+		 * Gets a buffer over the values of this vector, which reads and writes
+		 * them directly. The buffer is only valid until elements are added to
+		 * or removed from this vector.
+		 * 
+		 * @return a buffer holding the values of this vector.
+		 */
+		public IntBuffer asIntBuffer() {
+			return IntBuffer.wrap(values.data, 0, values.size).slice();
+		}
+
+		@Override
+		public boolean equals(AmfValue value) {
+			if(value instanceof Integer && value.getType() == getType()) {
+				Integer vec = (Integer) value;
+				return vec.isFixedLength() == isFixedLength() && vec.asIntBuffer().equals(asIntBuffer());
+			}
+			return super.equals(value);
+		}
+
+		/**
+		 * Gets the value at the given index without boxing it.
+		 * 
+		 * @param index
+		 *            the index of the value.
+		 * @return the value.
+		 * @throws IndexOutOfBoundsException
+		 *             if the index is out of range.
+		 */
+		public int getInt(int index) {
+			return values.getInt(index);
+		}
+
 		@Override
 		public AmfType getType() {
 			return AmfType.VectorInt;
 		}
+
+		/**
+		 * Sets the value at the given index.
+		 * 
+		 * @param index
+		 *            the index of the value.
+		 * @param value
+		 *            the value to set.
+		 * @throws IndexOutOfBoundsException
+		 *             if the index is out of range.
+		 */
+		public void setInt(int index, int value) {
+			values.setInt(index, value);
+		}
+
+		/**
+		 * Gets a copy of the values of this vector.
+		 * 
+		 * @return an array of the values.
+		 */
+		public int[] toIntArray() {
+			return values.toIntArray();
+		}
 		
 		@Override
 		public String toString() {
 			StringBuilder buf = new StringBuilder();
 			buf.append("VectorInt{");
 			boolean first = true;
-			for(AmfInteger val : this) {
+			for(int i = 0; i < values.size; ++i) {
 				if(!first) {
 					buf.append(",");
 				}
-				buf.append(val.getValue());
+				buf.append(values.data[i]);
 			}
 			buf.append("}");
 			return buf.toString();
@@ -148,20 +384,146 @@ public abstract class AmfVector<E> extends AmfValue implements List<E> {
 	 * @see AmfVector
 	 */
 	public static class UnsignedInteger extends AmfVector<AmfInteger> {
+		private final AmfIntList values;
+
+		/**
+		 * Constructs an empty, non-fixed length vector.
+		 */
+		public UnsignedInteger() {
+			this(new AmfIntList());
+		}
+
+		/**
+		 * Constructs a non-fixed length vector holding a copy of the given
+		 * values.
+		 * 
+		 * @param values
+		 *            the values of the vector as raw 32 bit values.
+		 */
+		public UnsignedInteger(int[] values) {
+			this(new AmfIntList(values.clone(), values.length));
+		}
+
+		private UnsignedInteger(AmfIntList values) {
+			super(values);
+			this.values = values;
+		}
+
+		/**
+		 * Constructs a vector that takes ownership of the given array, used by
+		 * the decoders.
+		 */
+		static UnsignedInteger wrap(int[] data, int size) {
+			return new UnsignedInteger(new AmfIntList(data, size));
+		}
+
+		/**
+		 * Sets the size of this vector to the given count, and returns the
+		 * backing array for the caller to fill. Used by the decoders.
+		 */
+		int[] prepare(int count) {
+			values.clear();
+			values.ensureCapacity(count);
+			values.size = count;
+			return values.data;
+		}
+
+		/**
+		 * Appends the specified value to the end of this vector, see
+		 * {@link #add(Object)}.
+		 * 
+		 * @param value
+		 *            The value to add, as a raw 32 bit value.
+		 */
+		public void add(int value) {
+			checkCapacity(1);
+			values.addInt(value);
+		}
+
+		/**
+		 * Gets a buffer over the values of this vector, which reads and writes
+		 * them directly. The buffer is only valid until elements are added to
+		 * or removed from this vector.
+		 * 
+		 * @return a buffer holding the values of this vector.
+		 */
+		public IntBuffer asIntBuffer() {
+			return IntBuffer.wrap(values.data, 0, values.size).slice();
+		}
+
+		@Override
+		public boolean equals(AmfValue value) {
+			if(value instanceof UnsignedInteger && value.getType() == getType()) {
+				UnsignedInteger vec = (UnsignedInteger) value;
+				return vec.isFixedLength() == isFixedLength() && vec.asIntBuffer().equals(asIntBuffer());
+			}
+			return super.equals(value);
+		}
+
+		/**
+		 * Gets the value at the given index without boxing it, as a raw 32 bit value.
+		 * 
+		 * @param index
+		 *            the index of the value.
+		 * @return the value.
+		 * @throws IndexOutOfBoundsException
+		 *             if the index is out of range.
+		 */
+		public int getInt(int index) {
+			return values.getInt(index);
+		}
+
 		@Override
 		public AmfType getType() {
 			return AmfType.VectorUInt;
 		}
+
+		/**
+		 * Gets the unsigned value at the given index.
+		 * 
+		 * @param index
+		 *            the index of the value.
+		 * @return the unsigned value.
+		 * @throws IndexOutOfBoundsException
+		 *             if the index is out of range.
+		 */
+		public long getUnsignedInt(int index) {
+			return values.getInt(index) & 0xFFFFFFFFL;
+		}
+
+		/**
+		 * Sets the value at the given index.
+		 * 
+		 * @param index
+		 *            the index of the value.
+		 * @param value
+		 *            the value to set.
+		 * @throws IndexOutOfBoundsException
+		 *             if the index is out of range.
+		 */
+		public void setInt(int index, int value) {
+			values.setInt(index, value);
+		}
+
+		/**
+		 * Gets a copy of the values of this vector.
+		 * 
+		 * @return an array of the values.
+		 */
+		public int[] toIntArray() {
+			return values.toIntArray();
+		}
+		
 		@Override
 		public String toString() {
 			StringBuilder buf = new StringBuilder();
 			buf.append("VectorUnsigned{");
 			boolean first = true;
-			for(AmfInteger val : this) {
+			for(int i = 0; i < values.size; ++i) {
 				if(!first) {
 					buf.append(",");
 				}
-				buf.append(val.getUnsignedValue());
+				buf.append(values.data[i] & 0xFFFFFFFFL);
 			}
 			buf.append("}");
 			return buf.toString();
@@ -181,6 +543,15 @@ public abstract class AmfVector<E> extends AmfValue implements List<E> {
 		fixedLength = false;
 	}
 
+	/**
+	 * Constructs a non-fixed length vector backed by the given list.
+	 */
+	AmfVector(List<E> list) {
+		this.list = list;
+		capacity = -1;
+		fixedLength = false;
+	}
+
 	/**
 	 * Constructs a fixed length vector of the specified size.
 	 * 
@@ -207,11 +578,22 @@ public abstract class AmfVector<E> extends AmfValue implements List<E> {
 	 */
 	@Override
 	public boolean add(E value) {
-		if(size() + 1 > capacity) {
+		checkCapacity(1);
+		return list.add(value);
+	}
+
+	/**
+	 * Checks that the given number of values can be added to this vector.
+	 * 
+	 * @throws UnsupportedOperationException
+	 *             if the vector has a fixed length and adding the values would
+	 *             exceed its capacity.
+	 */
+	void checkCapacity(int count) {
+		if(fixedLength && size() + count > capacity) {
 			String msg = String.format("This vector is fixed length and cannot contain more than %d entries.", capacity);
 			throw new UnsupportedOperationException(msg);
 		}
-		return list.add(value);
 	}
 
 	@Override
@@ -342,6 +724,16 @@ public abstract class AmfVector<E> extends AmfValue implements List<E> {
 		return list.set(index, element);
 	}
 
+	/**
+	 * Empties this vector and makes it non-fixed length, keeping its storage.
+	 * Used by {@link AmfValuePool}.
+	 */
+	void recycle() {
+		list.clear();
+		capacity = -1;
+		fixedLength = false;
+	}
+
 	/**
 	 * Sets the capacity of this vector to the specified value. The capacity
 	 * will not be used unless {@link #isFixedLength()} returns true.
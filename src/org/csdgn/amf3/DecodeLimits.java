@@ -0,0 +1,247 @@
+/**
+ * Copyright (c) 2017 Robert Maupin
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.csdgn.amf3;
+
+/**
+ * <p>
+ * Limits on the data a decoder accepts, so that untrusted data cannot make it
+ * run out of memory or stack. Each limit is checked as the data is read,
+ * before anything is allocated for it, and a decoder that reaches a limit
+ * throws an {@link UnexpectedDataException}. The limits apply to each value
+ * decoded separately.
+ * </p>
+ * 
+ * <p>
+ * A new DecodeLimits has no limits. {@link #hardened()} gives limits suitable
+ * for data from clients. The decoders copy the limits when they are set, so
+ * later changes only take effect when the limits are set again.
+ * </p>
+ * 
+ * @author Robert Maupin
+ * @see AmfDecoder#setDecodeLimits(DecodeLimits)
+ * @see AmfPushDecoder#setDecodeLimits(DecodeLimits)
+ */
+public class DecodeLimits {
+	/**
+	 * The estimated size of a value, counted towards
+	 * {@link #getMaxTotalBytes()} for each value decoded.
+	 */
+	static final int VALUE_SIZE = 16;
+
+	private int maxByteArrayLength;
+	private int maxDepth;
+	private int maxElements;
+	private int maxReferences;
+	private int maxStringLength;
+	private long maxTotalBytes;
+
+	/**
+	 * Creates limits that allow anything.
+	 */
+	public DecodeLimits() {
+		maxByteArrayLength = Integer.MAX_VALUE;
+		maxDepth = Integer.MAX_VALUE;
+		maxElements = Integer.MAX_VALUE;
+		maxReferences = Integer.MAX_VALUE;
+		maxStringLength = Integer.MAX_VALUE;
+		maxTotalBytes = Long.MAX_VALUE;
+	}
+
+	/**
+	 * Creates a copy of the given limits.
+	 * 
+	 * @param limits
+	 *            the limits to copy.
+	 */
+	public DecodeLimits(DecodeLimits limits) {
+		maxByteArrayLength = limits.maxByteArrayLength;
+		maxDepth = limits.maxDepth;
+		maxElements = limits.maxElements;
+		maxReferences = limits.maxReferences;
+		maxStringLength = limits.maxStringLength;
+		maxTotalBytes = limits.maxTotalBytes;
+	}
+
+	/**
+	 * Creates limits for decoding data from untrusted sources. Values may be
+	 * nested 64 deep, collections may have up to 65536 elements, strings may
+	 * be up to 1 MB and byte arrays up to 16 MB long, each table may hold up
+	 * to 65536 entries, and a value may take up to 64 MB in total.
+	 * 
+	 * @return the new limits.
+	 */
+	public static DecodeLimits hardened() {
+		DecodeLimits limits = new DecodeLimits();
+		limits.maxByteArrayLength = 16 << 20;
+		limits.maxDepth = 64;
+		limits.maxElements = 1 << 16;
+		limits.maxReferences = 1 << 16;
+		limits.maxStringLength = 1 << 20;
+		limits.maxTotalBytes = 64 << 20;
+		return limits;
+	}
+
+	private static void checkLimit(long limit) {
+		if(limit < 0) {
+			throw new IllegalArgumentException("The limit provided cannot be negative.");
+		}
+	}
+
+	/**
+	 * Creates the exception thrown when a limit is exceeded.
+	 */
+	static UnexpectedDataException exceeded(String name, long limit) {
+		return new UnexpectedDataException(String.format("Decode limit exceeded: %s %d", name, limit));
+	}
+
+	/**
+	 * Gets the maximum length of a byte array.
+	 * 
+	 * @return the maximum length in bytes.
+	 */
+	public int getMaxByteArrayLength() {
+		return maxByteArrayLength;
+	}
+
+	/**
+	 * Gets the maximum depth objects, arrays, dictionaries and generic
+	 * vectors may be nested to.
+	 * 
+	 * @return the maximum depth.
+	 */
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * Gets the maximum number of elements of a collection, which is the dense
+	 * count of an array, the entry count of a dictionary, the length of a
+	 * vector or the number of sealed properties of a trait. Associative and
+	 * dynamic members are not counted, they are limited by
+	 * {@link #getMaxTotalBytes()}.
+	 * 
+	 * @return the maximum number of elements.
+	 */
+	public int getMaxElements() {
+		return maxElements;
+	}
+
+	/**
+	 * Gets the maximum number of entries of each of the string, trait and
+	 * object reference tables.
+	 * 
+	 * @return the maximum number of entries.
+	 */
+	public int getMaxReferences() {
+		return maxReferences;
+	}
+
+	/**
+	 * Gets the maximum length of a string or XML value, in UTF-8 bytes.
+	 * 
+	 * @return the maximum length in bytes.
+	 */
+	public int getMaxStringLength() {
+		return maxStringLength;
+	}
+
+	/**
+	 * Gets the maximum estimated memory a decoded value may take. The
+	 * estimate counts the length of each string, byte array and numeric
+	 * vector, and 16 bytes for every value.
+	 * 
+	 * @return the maximum size in bytes.
+	 */
+	public long getMaxTotalBytes() {
+		return maxTotalBytes;
+	}
+
+	/**
+	 * Sets the maximum length of a byte array.
+	 * 
+	 * @param maxByteArrayLength
+	 *            the maximum length in bytes.
+	 */
+	public void setMaxByteArrayLength(int maxByteArrayLength) {
+		checkLimit(maxByteArrayLength);
+		this.maxByteArrayLength = maxByteArrayLength;
+	}
+
+	/**
+	 * Sets the maximum depth objects, arrays, dictionaries and generic
+	 * vectors may be nested to. A depth of zero allows none of them.
+	 * 
+	 * @param maxDepth
+	 *            the maximum depth.
+	 */
+	public void setMaxDepth(int maxDepth) {
+		checkLimit(maxDepth);
+		this.maxDepth = maxDepth;
+	}
+
+	/**
+	 * Sets the maximum number of elements of a collection, see
+	 * {@link #getMaxElements()}.
+	 * 
+	 * @param maxElements
+	 *            the maximum number of elements.
+	 */
+	public void setMaxElements(int maxElements) {
+		checkLimit(maxElements);
+		this.maxElements = maxElements;
+	}
+
+	/**
+	 * Sets the maximum number of entries of each of the string, trait and
+	 * object reference tables.
+	 * 
+	 * @param maxReferences
+	 *            the maximum number of entries.
+	 */
+	public void setMaxReferences(int maxReferences) {
+		checkLimit(maxReferences);
+		this.maxReferences = maxReferences;
+	}
+
+	/**
+	 * Sets the maximum length of a string or XML value, in UTF-8 bytes.
+	 * 
+	 * @param maxStringLength
+	 *            the maximum length in bytes.
+	 */
+	public void setMaxStringLength(int maxStringLength) {
+		checkLimit(maxStringLength);
+		this.maxStringLength = maxStringLength;
+	}
+
+	/**
+	 * Sets the maximum estimated memory a decoded value may take, see
+	 * {@link #getMaxTotalBytes()}.
+	 * 
+	 * @param maxTotalBytes
+	 *            the maximum size in bytes.
+	 */
+	public void setMaxTotalBytes(long maxTotalBytes) {
+		checkLimit(maxTotalBytes);
+		this.maxTotalBytes = maxTotalBytes;
+	}
+}
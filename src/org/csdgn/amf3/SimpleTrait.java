@@ -22,10 +22,15 @@
 package org.csdgn.amf3;
 
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * A simple trait implementation that does not allow modification of its values.
+ * Two traits are equal if they have the same name, flags and sealed properties
+ * in the same order, so instances can be used as keys in hash based tables.
  * 
  * @author Robert Maupin
  *
@@ -35,6 +40,11 @@ public class SimpleTrait implements Trait {
 	protected boolean externalizable;
 	protected String name;
 	protected List<String> properties;
+	private int hash;
+	// property name to index, only built for traits with many properties
+	private volatile Map<String, Integer> index;
+	// 0 if not yet known, 1 if the property names are unique, 2 if not
+	private int unique;
 
 	/**
 	 * Creates a trait with the given values.
@@ -52,7 +62,25 @@ public class SimpleTrait implements Trait {
 		this.name = name;
 		this.dynamic = isDynamic;
 		this.externalizable = isExternalizable;
-		this.properties = Arrays.asList(properties);
+		this.properties = Collections.unmodifiableList(Arrays.asList(properties.clone()));
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if(obj == this) {
+			return true;
+		}
+		if(!(obj instanceof Trait)) {
+			return false;
+		}
+		Trait trait = (Trait) obj;
+		if(dynamic != trait.isDynamic() || externalizable != trait.isExternalizable()) {
+			return false;
+		}
+		if(obj instanceof SimpleTrait && hashCode() != obj.hashCode()) {
+			return false;
+		}
+		return name.equals(trait.getName()) && properties.equals(trait.getProperties());
 	}
 
 	@Override
@@ -65,6 +93,65 @@ public class SimpleTrait implements Trait {
 		return properties;
 	}
 
+	@Override
+	public int hashCode() {
+		int h = hash;
+		if(h == 0) {
+			h = name.hashCode() * 31 + properties.hashCode();
+			h = h * 4 + (dynamic ? 2 : 0) + (externalizable ? 1 : 0);
+			hash = h;
+		}
+		return h;
+	}
+
+	/**
+	 * Gets the index of the given sealed property within
+	 * {@link #getProperties()}, which is also its slot in the objects decoded
+	 * with this trait, see {@link AmfObject#get(int)}. The index can be looked
+	 * up once and used with every object of this trait.
+	 * 
+	 * @param property
+	 *            the property name.
+	 * @return the index of the property, or -1 if there is no such property.
+	 */
+	public int indexOf(String property) {
+		int size = properties.size();
+		if(size <= 8) {
+			for(int i = size - 1; i >= 0; --i) {
+				String name = properties.get(i);
+				if(name == property || name.equals(property)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+		Map<String, Integer> map = index;
+		if(map == null) {
+			map = new HashMap<String, Integer>(size * 2);
+			for(int i = 0; i < size; ++i) {
+				map.put(properties.get(i), i);
+			}
+			index = map;
+		}
+		Integer i = map.get(property);
+		return i == null ? -1 : i;
+	}
+
+	/**
+	 * Indicates if no two sealed properties of this trait have the same name,
+	 * so that the trait can be used as the shape of compact objects.
+	 */
+	boolean hasUniqueProperties() {
+		if(unique == 0) {
+			boolean result = true;
+			for(int i = 0; i < properties.size() && result; ++i) {
+				result = indexOf(properties.get(i)) == i;
+			}
+			unique = result ? 1 : 2;
+		}
+		return unique == 1;
+	}
+
 	@Override
 	public boolean isDynamic() {
 		return dynamic;
@@ -25,7 +25,9 @@ import java.util.List;
 
 /**
  * This defines a Trait. Traits are never stored and are created dynamically and
- * are only generally used when reading or writing to disk.
+ * are only generally used when reading or writing to disk. Implementations
+ * should compare equal, and hash alike, when their names, flags and
+ * properties are the same, see {@link SimpleTrait}.
  * 
  * @author Robert Maupin
  *
@@ -0,0 +1,283 @@
+/**
+ * Copyright (c) 2017 Robert Maupin
+ * 
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * 
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * 
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package org.csdgn.amf3;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A registry of canonical traits and property names, which can be shared by
+ * any number of decoders across threads and messages. Decoders given a
+ * registry look property names up by their raw UTF-8 bytes, so names seen
+ * before are not decoded again, and give every object of the same trait the
+ * same {@link SimpleTrait} and key instances.
+ * <p>
+ * Lookups never lock. The registry holds a bounded number of entries, and an
+ * entry may be replaced by a newer one that hashes to the same place, in
+ * which case the older one is simply decoded again when next seen.
+ * 
+ * @author Robert Maupin
+ * @see AmfDecoder#setTraitRegistry(TraitRegistry)
+ */
+public final class TraitRegistry {
+	// names longer than this are unlikely to be property names
+	private static final int MAX_NAME_LENGTH = 256;
+
+	private static final class Name {
+		final int hash;
+		final byte[] utf8;
+		final String value;
+
+		Name(int hash, byte[] utf8, String value) {
+			this.hash = hash;
+			this.utf8 = utf8;
+			this.value = value;
+		}
+	}
+
+	private final AtomicReferenceArray<Name> names;
+	private final AtomicReferenceArray<SimpleTrait> traits;
+
+	/**
+	 * Creates a registry that keeps up to 1024 traits.
+	 */
+	public TraitRegistry() {
+		this(1024);
+	}
+
+	/**
+	 * Creates a registry that keeps up to the given number of traits, rounded
+	 * up to a power of two, and eight times as many property names.
+	 * 
+	 * @param capacity
+	 *            the number of traits to keep.
+	 */
+	public TraitRegistry(int capacity) {
+		if(capacity < 1 || capacity > (1 << 26)) {
+			throw new IllegalArgumentException("Capacity out of range: " + capacity);
+		}
+		int size = Integer.highestOneBit(capacity);
+		if(size < capacity) {
+			size <<= 1;
+		}
+		traits = new AtomicReferenceArray<SimpleTrait>(Math.max(size, 2));
+		names = new AtomicReferenceArray<Name>(Math.max(size << 3, 2));
+	}
+
+	/**
+	 * Removes all traits and names from this registry.
+	 */
+	public void clear() {
+		for(int i = 0; i < traits.length(); ++i) {
+			traits.set(i, null);
+		}
+		for(int i = 0; i < names.length(); ++i) {
+			names.set(i, null);
+		}
+	}
+
+	/**
+	 * Gets the canonical instance of the given trait. If no equal trait is in
+	 * the registry, the given trait is added and returned, so its property
+	 * names should be canonical already, see {@link #intern(String)}.
+	 * 
+	 * @param trait
+	 *            the trait to look up.
+	 * @return the canonical trait equal to the given one.
+	 */
+	public SimpleTrait intern(SimpleTrait trait) {
+		int hash = spread(trait.hashCode());
+		int slot = hash & (traits.length() - 1);
+		// two way, an entry can be in its slot or the one next to it
+		SimpleTrait found = traits.get(slot);
+		if(found != null && found.equals(trait)) {
+			return found;
+		}
+		SimpleTrait other = traits.get(slot ^ 1);
+		if(other != null && other.equals(trait)) {
+			return other;
+		}
+		traits.lazySet(found == null || other != null && (hash & traits.length()) == 0 ? slot : slot ^ 1, trait);
+		return trait;
+	}
+
+	/**
+	 * Gets the trait with the given name, flags and the first count of the
+	 * given properties, or null if it is not in the registry. Nothing is
+	 * allocated.
+	 */
+	SimpleTrait find(String name, boolean dynamic, boolean externalizable, String[] properties, int count) {
+		// the same hash as SimpleTrait.hashCode
+		int list = 1;
+		for(int i = 0; i < count; ++i) {
+			list = 31 * list + properties[i].hashCode();
+		}
+		int h = name.hashCode() * 31 + list;
+		h = h * 4 + (dynamic ? 2 : 0) + (externalizable ? 1 : 0);
+		int hash = spread(h);
+		int slot = hash & (traits.length() - 1);
+		SimpleTrait found = traits.get(slot);
+		if(found != null && matches(found, h, name, dynamic, externalizable, properties, count)) {
+			return found;
+		}
+		found = traits.get(slot ^ 1);
+		if(found != null && matches(found, h, name, dynamic, externalizable, properties, count)) {
+			return found;
+		}
+		return null;
+	}
+
+	private static boolean matches(SimpleTrait trait, int hash, String name, boolean dynamic, boolean externalizable,
+			String[] properties, int count) {
+		if(trait.hashCode() != hash || trait.isDynamic() != dynamic || trait.isExternalizable() != externalizable
+				|| !trait.getName().equals(name)) {
+			return false;
+		}
+		List<String> props = trait.getProperties();
+		if(props.size() != count) {
+			return false;
+		}
+		for(int i = 0; i < count; ++i) {
+			if(!props.get(i).equals(properties[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Gets the canonical instance of the given name.
+	 * 
+	 * @param name
+	 *            the name to look up.
+	 * @return the canonical name equal to the given one.
+	 */
+	public String intern(String name) {
+		return name(name.getBytes(StandardCharsets.UTF_8), name);
+	}
+
+	/**
+	 * Gets the name with the given UTF-8 bytes, or null if it is not in the
+	 * registry. The position of the buffer is not used or modified.
+	 */
+	String lookup(ByteBuffer buf, int offset, int length) {
+		if(length > MAX_NAME_LENGTH) {
+			return null;
+		}
+		int hash = hash(buf, offset, length);
+		int slot = hash & (names.length() - 1);
+		Name name = names.get(slot);
+		if(name != null && name.hash == hash && equal(name.utf8, buf, offset, length)) {
+			return name.value;
+		}
+		name = names.get(slot ^ 1);
+		if(name != null && name.hash == hash && equal(name.utf8, buf, offset, length)) {
+			return name.value;
+		}
+		return null;
+	}
+
+	/**
+	 * Adds the given decoded name with the given UTF-8 bytes to the registry.
+	 * 
+	 * @return the canonical name, which is the given one unless another
+	 *         thread added it first.
+	 */
+	String register(ByteBuffer buf, int offset, int length, String value) {
+		if(length > MAX_NAME_LENGTH) {
+			return value;
+		}
+		byte[] utf8 = new byte[length];
+		for(int i = 0; i < length; ++i) {
+			utf8[i] = buf.get(offset + i);
+		}
+		return name(utf8, value);
+	}
+
+	private String name(byte[] utf8, String value) {
+		if(utf8.length > MAX_NAME_LENGTH) {
+			return value;
+		}
+		int hash = spread(hash(utf8));
+		int slot = hash & (names.length() - 1);
+		Name found = names.get(slot);
+		if(found != null && found.hash == hash && found.value.equals(value)) {
+			return found.value;
+		}
+		Name other = names.get(slot ^ 1);
+		if(other != null && other.hash == hash && other.value.equals(value)) {
+			return other.value;
+		}
+		Name name = new Name(hash, utf8, value);
+		names.lazySet(found == null || other != null && (hash & names.length()) == 0 ? slot : slot ^ 1, name);
+		return value;
+	}
+
+	private static boolean equal(byte[] utf8, ByteBuffer buf, int offset, int length) {
+		if(utf8.length != length) {
+			return false;
+		}
+		for(int i = 0; i < length; ++i) {
+			if(utf8[i] != buf.get(offset + i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int hash(ByteBuffer buf, int offset, int length) {
+		int h = 0;
+		for(int i = 0; i < length; ++i) {
+			h = 31 * h + buf.get(offset + i);
+		}
+		return spread(h);
+	}
+
+	private static int hash(byte[] utf8) {
+		int h = 0;
+		for(byte b : utf8) {
+			h = 31 * h + b;
+		}
+		return h;
+	}
+
+	private static int spread(int h) {
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Gets the number of traits currently in this registry.
+	 * 
+	 * @return the number of traits.
+	 */
+	public int size() {
+		int size = 0;
+		for(int i = 0; i < traits.length(); ++i) {
+			if(traits.get(i) != null) {
+				++size;
+			}
+		}
+		return size;
+	}
+}